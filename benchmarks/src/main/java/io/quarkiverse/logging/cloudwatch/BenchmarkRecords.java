@@ -0,0 +1,65 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.Level;
+
+/**
+ * Log records shared by the benchmarks.
+ */
+public final class BenchmarkRecords {
+
+    private BenchmarkRecords() {
+    }
+
+    public static ExtLogRecord record(String kind) {
+        ExtLogRecord record;
+        switch (kind) {
+            case "parameters":
+                record = new ExtLogRecord(Level.WARN, "Order %s of customer %s took %d ms",
+                        ExtLogRecord.FormatStyle.PRINTF, BenchmarkRecords.class.getName());
+                record.setParameters(new Object[] { "ord-1234567", "cust-987", 1532 });
+                break;
+            case "mdc":
+                record = new ExtLogRecord(Level.WARN, "Request processed", BenchmarkRecords.class.getName());
+                record.setMdc(Map.of("traceId", "4bf92f3577b34da6a3ce929d0e0e4736", "spanId", "00f067aa0ba902b7",
+                        "tenant", "acme", "user", "jdoe"));
+                break;
+            case "exception":
+                record = new ExtLogRecord(Level.ERROR, "Request failed", BenchmarkRecords.class.getName());
+                record.setThrown(new IllegalStateException("Database unavailable",
+                        new IOException("Connection reset")));
+                break;
+            case "simple":
+            default:
+                record = new ExtLogRecord(Level.WARN, "Cache miss for the product catalog, reloading it",
+                        BenchmarkRecords.class.getName());
+                break;
+        }
+        record.setLoggerName("io.quarkiverse.logging.cloudwatch.benchmarks.OrderService");
+        record.setThreadName("executor-thread-1");
+        if (!"mdc".equals(kind)) {
+            // Otherwise the MDC of the benchmark thread would be copied into the record.
+            record.setMdc(Map.of());
+        }
+        return record;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once per number of threads from 1 to 64, with the GC profiler enabled so that the allocation rate
+ * is reported next to the timings. The arguments are the usual JMH command line options, e.g. a regular expression
+ * restricting the benchmarks to run.
+ * <p>
+ * The thread counts can be overridden with the {@code threads} system property, e.g. {@code -Dthreads=1,8}.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        String[] threadCounts = System.getProperty("threads", "1,2,4,8,16,32,64").split(",");
+        for (String threadCount : threadCounts) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .parent(commandLineOptions)
+                    .threads(Integer.parseInt(threadCount.trim()))
+                    .addProfiler(GCProfiler.class)
+                    // The queue benchmark defines its own producer and consumer threads.
+                    .exclude("EventQueueBenchmark");
+            if (commandLineOptions.getIncludes().isEmpty()) {
+                options.include("io.quarkiverse.logging.cloudwatch");
+            }
+            new Runner(options.build()).run();
+        }
+    }
+}
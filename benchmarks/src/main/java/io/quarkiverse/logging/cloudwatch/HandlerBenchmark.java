@@ -0,0 +1,93 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.jboss.logmanager.ExtLogRecord;
+import org.openjdk.jmh.annotations.*;
+
+import io.quarkiverse.logging.cloudwatch.LoggingCloudWatchConfig.LogStreamDistribution;
+import io.quarkiverse.logging.cloudwatch.format.ElasticCommonSchemaLogFormatter;
+import io.quarkiverse.logging.cloudwatch.format.StackTraceEncoder;
+import io.quarkiverse.logging.cloudwatch.queue.EventQueue;
+import io.quarkiverse.logging.cloudwatch.queue.LinkedEventQueue;
+import io.quarkiverse.logging.cloudwatch.queue.MpscRingBuffer;
+
+/**
+ * Measures the cost of {@link LoggingCloudWatchHandler#publish} and {@link LoggingCloudWatchHandler#formatMessage} on the
+ * logging threads, while a publisher sends the queued events to a stubbed CloudWatch client.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HandlerBenchmark {
+
+    @Param({ "simple", "parameters", "mdc", "exception" })
+    public String record;
+
+    @Param({ "linked", "ring-buffer" })
+    public String queueType;
+
+    @Param({ "false", "true" })
+    public boolean deferredFormatting;
+
+    private LoggingCloudWatchHandler handler;
+
+    private ExtLogRecord logRecord;
+
+    @Setup
+    public void setup() {
+        // The queue may be full when many threads log, the warnings of the handler would only add noise.
+        Logger.getLogger("io.quarkiverse.logging.cloudwatch").setLevel(java.util.logging.Level.OFF);
+
+        EventQueue<LogEvent> queue = "linked".equals(queueType) ? new LinkedEventQueue<>(Optional.of(100_000))
+                : new MpscRingBuffer<>(100_000);
+        LogStreamPublisher publisher = new LogStreamPublisher(new SyncLogEventsSender(new StubCloudWatchLogsClient(),
+                "benchmark-group", "benchmark-stream", false, null, new LoggingCloudWatchMetrics()), "benchmark-stream",
+                queue, 10_000, Duration.ofMillis(100), 10_000);
+        handler = new LoggingCloudWatchHandler(List.of(publisher), List.of(), LogStreamDistribution.THREAD,
+                AdmissionController.ADMIT_ALL, new LoggingCloudWatchMetrics(),
+                new ElasticCommonSchemaLogFormatter(Optional.of("benchmark"), new StackTraceEncoder(0, List.of()), 0),
+                LoggingCloudWatchHandler.DEFAULT_SHUTDOWN_TIMEOUT, deferredFormatting, null);
+        handler.setLevel(org.jboss.logmanager.Level.INFO);
+        handler.start();
+        logRecord = BenchmarkRecords.record(record);
+    }
+
+    @TearDown
+    public void tearDown() {
+        handler.close();
+    }
+
+    @Benchmark
+    public void publish() {
+        handler.publish(logRecord);
+    }
+
+    @Benchmark
+    public String formatMessage() {
+        return handler.formatMessage(logRecord);
+    }
+}
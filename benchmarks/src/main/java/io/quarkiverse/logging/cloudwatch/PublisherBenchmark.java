@@ -0,0 +1,80 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import io.quarkiverse.logging.cloudwatch.queue.MpscRingBuffer;
+
+/**
+ * Measures the batch assembly of {@link LogStreamPublisher}: draining the queue, enforcing the PutLogEvents limits,
+ * ordering the events and building the requests, against a stubbed CloudWatch client.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PublisherBenchmark {
+
+    @Param({ "1000", "10000" })
+    public int events;
+
+    @Param({ "200", "2000" })
+    public int messageSize;
+
+    @Param({ "true", "false" })
+    public boolean ordered;
+
+    // Disabled by default, only the CloudWatch compatible endpoints that still require them need sequence tokens.
+    @Param({ "false", "true" })
+    public boolean sequenceTokens;
+
+    private LogEvent[] logEvents;
+
+    private MpscRingBuffer<LogEvent> queue;
+
+    private LogStreamPublisher publisher;
+
+    @Setup
+    public void setup() {
+        String message = "x".repeat(messageSize);
+        long now = System.currentTimeMillis();
+        logEvents = new LogEvent[events];
+        for (int i = 0; i < events; i++) {
+            // Unordered events come from a few interleaved threads, each one logging in order.
+            long timestamp = ordered ? now + i : now + (i % 8) * 1000 + i / 8;
+            logEvents[i] = LogEvent.formatted(timestamp, message, ordered ? 0 : i % 8);
+        }
+        queue = new MpscRingBuffer<>(events);
+        publisher = new LogStreamPublisher(new SyncLogEventsSender(new StubCloudWatchLogsClient(), "benchmark-group",
+                "benchmark-stream", sequenceTokens, null, new LoggingCloudWatchMetrics()), "benchmark-stream", queue,
+                10_000, Duration.ofHours(1), 10_000);
+    }
+
+    @Benchmark
+    public void assembleAndSend() {
+        for (LogEvent logEvent : logEvents) {
+            queue.offer(logEvent);
+        }
+        publisher.run();
+    }
+}
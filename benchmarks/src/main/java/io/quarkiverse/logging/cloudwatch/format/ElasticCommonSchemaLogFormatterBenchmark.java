@@ -0,0 +1,55 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch.format;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.logmanager.ExtLogRecord;
+import org.openjdk.jmh.annotations.*;
+
+import io.quarkiverse.logging.cloudwatch.BenchmarkRecords;
+
+/**
+ * Measures the ECS serialization of a record, with MDC entries and exceptions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ElasticCommonSchemaLogFormatterBenchmark {
+
+    @Param({ "simple", "mdc", "exception" })
+    public String record;
+
+    private ElasticCommonSchemaLogFormatter formatter;
+
+    private ExtLogRecord logRecord;
+
+    @Setup
+    public void setup() {
+        formatter = new ElasticCommonSchemaLogFormatter(Optional.of("benchmark"));
+        logRecord = BenchmarkRecords.record(record);
+    }
+
+    @Benchmark
+    public String format() {
+        return formatter.format(logRecord);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch.format;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.logmanager.ExtLogRecord;
+import org.openjdk.jmh.annotations.*;
+
+import io.quarkiverse.logging.cloudwatch.BenchmarkRecords;
+
+/**
+ * Compares the output formats, with MDC entries and exceptions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LogFormatterBenchmark {
+
+    @Param({ "ecs", "compact-json", "plain-text" })
+    public String format;
+
+    @Param({ "simple", "mdc", "exception" })
+    public String record;
+
+    private CloudWatchLogFormatter formatter;
+
+    private ExtLogRecord logRecord;
+
+    @Setup
+    public void setup() {
+        StackTraceEncoder stackTraceEncoder = new StackTraceEncoder(16384, List.of());
+        switch (format) {
+            case "compact-json":
+                formatter = new CompactJsonLogFormatter(Optional.of("benchmark"), stackTraceEncoder, 0);
+                break;
+            case "plain-text":
+                formatter = new PlainTextLogFormatter(stackTraceEncoder, 0);
+                break;
+            default:
+                formatter = new ElasticCommonSchemaLogFormatter(Optional.of("benchmark"), stackTraceEncoder, 0);
+                break;
+        }
+        logRecord = BenchmarkRecords.record(record);
+    }
+
+    @Benchmark
+    public String format() {
+        return formatter.format(logRecord, logRecord.getMessage());
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch.queue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the queues handing the log events over from the logging threads to the publisher thread, with several
+ * producers offering events while a single consumer drains them, like the CloudWatch handler does.
+ * <p>
+ * The number of producers can be changed from the command line, e.g. {@code -tg 32,1} for 32 producers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class EventQueueBenchmark {
+
+    private static final int CAPACITY = 65_536;
+    private static final int DRAIN_SIZE = 10_000;
+
+    @Param({ "linked", "ring-buffer" })
+    public String queueType;
+
+    private EventQueue<Object> queue;
+
+    private final Object event = new Object();
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        queue = "linked".equals(queueType) ? new LinkedEventQueue<>(Optional.of(CAPACITY)) : new MpscRingBuffer<>(CAPACITY);
+    }
+
+    @State(Scope.Thread)
+    public static class Consumer {
+        final List<Object> drained = new ArrayList<>(DRAIN_SIZE);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    public boolean offer() {
+        return queue.offer(event);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void drain(Consumer consumer, Blackhole blackhole) {
+        blackhole.consume(queue.drainTo(consumer.drained, DRAIN_SIZE));
+        consumer.drained.clear();
+    }
+
+    @Benchmark
+    @Group("uncontended")
+    @GroupThreads(1)
+    public boolean offerAlone() {
+        return queue.offer(event);
+    }
+
+    @Benchmark
+    @Group("uncontended")
+    @GroupThreads(1)
+    public void drainAlone(Consumer consumer, Blackhole blackhole) {
+        blackhole.consume(queue.drainTo(consumer.drained, DRAIN_SIZE));
+        consumer.drained.clear();
+    }
+}
@@ -0,0 +1,23 @@
+package io.quarkiverse.logging.cloudwatch.deployment;
+
+import java.util.Optional;
+import java.util.logging.Handler;
+
+import io.quarkus.builder.item.SimpleBuildItem;
+import io.quarkus.runtime.RuntimeValue;
+
+/**
+ * The CloudWatch log handler, empty if the extension is disabled.
+ */
+final class LoggingCloudWatchHandlerBuildItem extends SimpleBuildItem {
+
+    private final RuntimeValue<Optional<Handler>> handler;
+
+    LoggingCloudWatchHandlerBuildItem(RuntimeValue<Optional<Handler>> handler) {
+        this.handler = handler;
+    }
+
+    RuntimeValue<Optional<Handler>> getHandler() {
+        return handler;
+    }
+}
@@ -1,25 +1,72 @@
 package io.quarkiverse.logging.cloudwatch.deployment;
 
+import java.util.Optional;
+
+import org.jboss.jandex.DotName;
+
 import io.quarkiverse.logging.cloudwatch.LoggingCloudWatchHandlerValueFactory;
+import io.quarkiverse.logging.cloudwatch.format.CloudWatchLogFormatter;
+import io.quarkus.arc.deployment.BeanContainerBuildItem;
+import io.quarkus.arc.deployment.UnremovableBeanBuildItem;
 import io.quarkus.deployment.annotations.BuildStep;
 import io.quarkus.deployment.annotations.ExecutionTime;
 import io.quarkus.deployment.annotations.Record;
 import io.quarkus.deployment.builditem.FeatureBuildItem;
 import io.quarkus.deployment.builditem.LogHandlerBuildItem;
+import io.quarkus.deployment.builditem.ShutdownContextBuildItem;
+import io.quarkus.deployment.builditem.nativeimage.ReflectiveMethodBuildItem;
+import io.quarkus.deployment.metrics.MetricsCapabilityBuildItem;
+import io.quarkus.runtime.metrics.MetricsFactory;
 
 class LoggingCloudwatchProcessor {
 
     private static final String FEATURE = "logging-cloudwatch";
+    private static final DotName LOG_FORMATTER = DotName.createSimple(CloudWatchLogFormatter.class.getName());
 
     @BuildStep
     FeatureBuildItem feature() {
         return new FeatureBuildItem(FEATURE);
     }
 
+    @BuildStep
+    ReflectiveMethodBuildItem registerVirtualThreadExecutorForReflection() {
+        // Looked up reflectively by the virtual-threads transport.
+        return new ReflectiveMethodBuildItem("CloudWatch virtual-threads transport", "java.util.concurrent.Executors",
+                "newVirtualThreadPerTaskExecutor", new Class<?>[0]);
+    }
+
+    /**
+     * Keeps the formatter beans of the application, which ArC would remove since they are only looked up
+     * programmatically when the format is {@code custom}.
+     */
+    @BuildStep
+    UnremovableBeanBuildItem keepLogFormatters() {
+        return UnremovableBeanBuildItem.beanTypes(LOG_FORMATTER);
+    }
+
+    @BuildStep
+    @Record(ExecutionTime.RUNTIME_INIT)
+    LoggingCloudWatchHandlerBuildItem createCloudwatchLogHandler(
+            final LoggingCloudWatchHandlerValueFactory cloudWatchHandlerValueFactory,
+            // The custom formatter is a bean.
+            final BeanContainerBuildItem beanContainer) {
+        return new LoggingCloudWatchHandlerBuildItem(cloudWatchHandlerValueFactory.create());
+    }
+
+    @BuildStep
+    LogHandlerBuildItem addCloudwatchLogHandler(final LoggingCloudWatchHandlerBuildItem cloudWatchHandler) {
+        return new LogHandlerBuildItem(cloudWatchHandler.getHandler());
+    }
+
     @BuildStep
     @Record(ExecutionTime.RUNTIME_INIT)
-    LogHandlerBuildItem addCloudwatchLogHandler(
-            final LoggingCloudWatchHandlerValueFactory cloudWatchHandlerValueFactory) {
-        return new LogHandlerBuildItem(cloudWatchHandlerValueFactory.create());
+    void registerMetrics(final LoggingCloudWatchHandlerValueFactory cloudWatchHandlerValueFactory,
+            final LoggingCloudWatchHandlerBuildItem cloudWatchHandler,
+            final Optional<MetricsCapabilityBuildItem> metricsCapability, final ShutdownContextBuildItem shutdownContext) {
+        if (metricsCapability.map(capability -> capability.metricsSupported(MetricsFactory.MICROMETER)).orElse(false)) {
+            cloudWatchHandlerValueFactory.bindMicrometerMetrics(cloudWatchHandler.getHandler());
+        } else {
+            cloudWatchHandlerValueFactory.registerMetricsMBean(cloudWatchHandler.getHandler(), shutdownContext);
+        }
     }
 }
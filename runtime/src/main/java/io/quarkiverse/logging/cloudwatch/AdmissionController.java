@@ -0,0 +1,95 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Decides whether a log record is queued, depending on its level and on how full the queue already is.
+ * <p>
+ * Below the shedding threshold, every record is queued. Above it, the records below the never-drop level are sampled:
+ * the pressure grows from 0 at the threshold to 1 when the queue is 90% full, and a record of level {@code l} is dropped
+ * with the probability {@code pressure ^ (l / (neverDropLevel - l))}, using the numeric values of the levels. With the
+ * default never-drop level of ERROR, a DEBUG record is dropped with the probability {@code pressure}, an INFO record
+ * with {@code pressure ^ 4} and a WARN record with {@code pressure ^ 9}. The last 10% of the queue is thereby kept for
+ * the records at or above the never-drop level, which are never shed.
+ */
+class AdmissionController {
+
+    /**
+     * Queues every record.
+     */
+    static final AdmissionController ADMIT_ALL = new AdmissionController(false, 1.0, Level.ALL);
+
+    static final double FULL_PRESSURE_FILL_RATIO = 0.9;
+
+    private final boolean enabled;
+    private final double threshold;
+    private final int neverDropLevel;
+    private final Map<Level, LongAdder> droppedRecords = new ConcurrentHashMap<>();
+
+    AdmissionController(boolean enabled, double threshold, Level neverDropLevel) {
+        this.enabled = enabled;
+        this.threshold = threshold;
+        this.neverDropLevel = neverDropLevel.intValue();
+    }
+
+    /**
+     * Whether a record of the given level is queued, into a queue filled to the given ratio. A record that is not
+     * queued is counted as dropped.
+     */
+    boolean admit(Level level, double fillRatio) {
+        if (!enabled || fillRatio <= threshold || level.intValue() >= neverDropLevel) {
+            return true;
+        }
+        if (ThreadLocalRandom.current().nextDouble() < dropProbability(level, pressure(fillRatio))) {
+            recordDropped(level);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Counts a record that was admitted but could not be queued anyway.
+     */
+    void recordDropped(Level level) {
+        droppedRecords.computeIfAbsent(level, l -> new LongAdder()).increment();
+    }
+
+    /**
+     * The number of dropped records per level, ordered by level.
+     */
+    Map<Level, Long> droppedRecords() {
+        Map<Level, Long> counts = new TreeMap<>((a, b) -> Integer.compare(a.intValue(), b.intValue()));
+        droppedRecords.forEach((level, count) -> counts.put(level, count.sum()));
+        return counts;
+    }
+
+    private double pressure(double fillRatio) {
+        return Math.min(1.0, (fillRatio - threshold) / (FULL_PRESSURE_FILL_RATIO - threshold));
+    }
+
+    private double dropProbability(Level level, double pressure) {
+        double levelValue = Math.max(0, level.intValue());
+        return Math.pow(pressure, levelValue / (neverDropLevel - levelValue));
+    }
+}
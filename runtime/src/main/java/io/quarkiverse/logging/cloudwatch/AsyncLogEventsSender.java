@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.logging.Logger;
+
+import software.amazon.awssdk.services.cloudwatchlogs.CloudWatchLogsAsyncClient;
+import software.amazon.awssdk.services.cloudwatchlogs.model.InputLogEvent;
+import software.amazon.awssdk.services.cloudwatchlogs.model.PutLogEventsRequest;
+
+/**
+ * Sends the batches with the non-blocking CloudWatch client. The publisher thread hands a batch over and moves on to
+ * the next one without waiting for the response, up to a maximum number of batches being sent at the same time.
+ * <p>
+ * Concurrent requests cannot share a chain of sequence tokens, so none is sent: CloudWatch accepts PutLogEvents calls
+ * without sequence token and ignores them anyway.
+ */
+class AsyncLogEventsSender implements LogEventsSender {
+
+    private static final Logger LOGGER = Logger.getLogger(AsyncLogEventsSender.class);
+
+    private final CloudWatchLogsAsyncClient cloudWatchLogsAsyncClient;
+    private final String logGroupName;
+    private final String logStreamName;
+    private final int maxInFlightBatches;
+    private final Semaphore inFlightBatches;
+
+    AsyncLogEventsSender(CloudWatchLogsAsyncClient cloudWatchLogsAsyncClient, String logGroup, String logStreamName,
+            int maxInFlightBatches) {
+        this.cloudWatchLogsAsyncClient = cloudWatchLogsAsyncClient;
+        this.logGroupName = logGroup;
+        this.logStreamName = logStreamName;
+        this.maxInFlightBatches = maxInFlightBatches;
+        this.inFlightBatches = new Semaphore(maxInFlightBatches);
+    }
+
+    @Override
+    public CompletionStage<Void> send(List<InputLogEvent> events) {
+        try {
+            // When too many batches are being sent, the publisher waits here instead of piling up requests.
+            inFlightBatches.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+        try {
+            PutLogEventsRequest request = PutLogEventsRequest.builder()
+                    .logGroupName(logGroupName)
+                    .logStreamName(logStreamName)
+                    .logEvents(events)
+                    .build();
+            return cloudWatchLogsAsyncClient.putLogEvents(request)
+                    .whenComplete((response, failure) -> inFlightBatches.release())
+                    .thenApply(response -> null);
+        } catch (Throwable t) {
+            inFlightBatches.release();
+            return CompletableFuture.failedFuture(t);
+        }
+    }
+
+    @Override
+    public void close(Duration timeout) {
+        try {
+            if (inFlightBatches.tryAcquire(maxInFlightBatches, timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                inFlightBatches.release(maxInFlightBatches);
+            } else {
+                LOGGER.warnf("Batches of log-stream %s were still being sent after %s", logStreamName, timeout);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
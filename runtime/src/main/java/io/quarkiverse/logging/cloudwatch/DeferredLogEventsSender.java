@@ -0,0 +1,71 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jboss.logging.Logger;
+
+import software.amazon.awssdk.services.cloudwatchlogs.model.InputLogEvent;
+
+/**
+ * Stands in for the sender of a log stream while the CloudWatch client and the log stream are set up in the
+ * background. Batches sent before that are sent once the actual sender is ready.
+ */
+class DeferredLogEventsSender implements LogEventsSender {
+
+    private static final Logger LOGGER = Logger.getLogger(DeferredLogEventsSender.class);
+
+    private final CompletableFuture<LogEventsSender> sender = new CompletableFuture<>();
+
+    void ready(LogEventsSender sender) {
+        this.sender.complete(sender);
+    }
+
+    void failed(Throwable failure) {
+        sender.completeExceptionally(failure);
+    }
+
+    @Override
+    public CompletionStage<Void> send(List<InputLogEvent> events) {
+        if (sender.isDone() && !sender.isCompletedExceptionally()) {
+            return sender.join().send(events);
+        }
+        return sender.thenCompose(actualSender -> actualSender.send(events));
+    }
+
+    @Override
+    public void close(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        try {
+            sender.get(timeout.toNanos(), TimeUnit.NANOSECONDS)
+                    .close(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // The failure was already logged when the initialization failed.
+        } catch (TimeoutException e) {
+            LOGGER.warnf("The CloudWatch log handler was still being initialized after %s", timeout);
+        }
+    }
+}
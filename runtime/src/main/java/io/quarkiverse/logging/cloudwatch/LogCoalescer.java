@@ -0,0 +1,247 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.jboss.logging.Logger;
+import org.jboss.logmanager.ExtLogRecord;
+
+/**
+ * Folds the records repeating the same message during a log storm.
+ * <p>
+ * The first record of a logger, level and message template opens a window and goes through. The same records logged
+ * until the window closes are only counted. Once it closes, a summary is emitted: a snapshot of the first repetition,
+ * logged at the time of the last one, with the number of repetitions and the time of the first record and of the last
+ * repetition as MDC entries.
+ * <p>
+ * Opening a window only costs a fingerprint and a map entry on the logging thread, the snapshot of a record is only
+ * taken once it repeats.
+ * <p>
+ * At most {@code maxFingerprints} windows are open at once, the records opening a window beyond that go through. The
+ * windows are closed by a background thread, which emits their summaries.
+ */
+class LogCoalescer {
+
+    static final String REPEAT_COUNT_KEY = "log.repeat.count";
+    static final String REPEAT_FIRST_KEY = "log.repeat.first";
+    static final String REPEAT_LAST_KEY = "log.repeat.last";
+
+    private static final Logger LOGGER = Logger.getLogger(LogCoalescer.class);
+
+    private final long windowMillis;
+    private final int maxFingerprints;
+    private final Map<Fingerprint, Window> windows = new ConcurrentHashMap<>();
+    // Windows replaced by a new one while still open, closed by the background thread.
+    private final Queue<Window> replacedWindows = new ConcurrentLinkedQueue<>();
+    private final LongAdder coalescedRecords = new LongAdder();
+    private ScheduledExecutorService scheduler;
+
+    LogCoalescer(Duration window, int maxFingerprints) {
+        this.windowMillis = window.toMillis();
+        this.maxFingerprints = maxFingerprints;
+    }
+
+    /**
+     * Starts closing the windows as they expire.
+     *
+     * @param summaries receives the summaries, from the background thread
+     */
+    synchronized void start(Consumer<ExtLogRecord> summaries) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cloudwatch-logs-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, windowMillis / 2);
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                closeWindows(System.currentTimeMillis(), summaries);
+            } catch (Throwable t) {
+                LOGGER.error("Unable to emit the summaries of the repeated log records", t);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background thread and closes all the windows.
+     */
+    synchronized void close(Consumer<ExtLogRecord> summaries) {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            try {
+                scheduler.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        closeWindows(Long.MAX_VALUE, summaries);
+    }
+
+    /**
+     * @return {@code true} if the record repeats one whose window is still open, and was only counted
+     */
+    boolean coalesce(LogRecord record) {
+        Fingerprint fingerprint = new Fingerprint(record);
+        long millis = record.getMillis();
+        Window window = windows.get(fingerprint);
+        if (window != null && window.repeat(record, millis)) {
+            coalescedRecords.increment();
+            return true;
+        }
+        if (window == null && windows.size() >= maxFingerprints) {
+            return false;
+        }
+        Window opened = new Window(record, millis + windowMillis);
+        if (window == null ? windows.putIfAbsent(fingerprint, opened) == null
+                : windows.replace(fingerprint, window, opened)) {
+            if (window != null) {
+                replacedWindows.add(window);
+            }
+            return false;
+        }
+        // Another thread opened a window meanwhile.
+        window = windows.get(fingerprint);
+        if (window != null && window.repeat(record, millis)) {
+            coalescedRecords.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Number of records that were only counted, out of a summary.
+     */
+    long coalescedRecords() {
+        return coalescedRecords.sum();
+    }
+
+    /**
+     * Closes the windows that expired at the given time, and emits the summaries of those with repetitions.
+     */
+    void closeWindows(long now, Consumer<ExtLogRecord> summaries) {
+        Window replaced;
+        while ((replaced = replacedWindows.poll()) != null) {
+            replaced.close(summaries);
+        }
+        for (Map.Entry<Fingerprint, Window> entry : windows.entrySet()) {
+            Window window = entry.getValue();
+            if (window.end <= now && windows.remove(entry.getKey(), window)) {
+                window.close(summaries);
+            }
+        }
+    }
+
+    private static final class Fingerprint {
+
+        private final String loggerName;
+        private final Level level;
+        private final String template;
+        private final int hashCode;
+
+        Fingerprint(LogRecord record) {
+            this.loggerName = record.getLoggerName();
+            this.level = record.getLevel();
+            this.template = record.getMessage();
+            this.hashCode = Objects.hash(loggerName, level, template);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Fingerprint)) {
+                return false;
+            }
+            Fingerprint other = (Fingerprint) o;
+            return hashCode == other.hashCode && level.equals(other.level) && Objects.equals(loggerName, other.loggerName)
+                    && Objects.equals(template, other.template);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class Window {
+
+        private static final long CLOSED = -1;
+
+        private final long firstMillis;
+        private final long end;
+        // The snapshot of the first repetition, set before the repetition is counted.
+        private final AtomicReference<ExtLogRecord> summary = new AtomicReference<>();
+        // The number of repetitions, CLOSED once the summary was emitted.
+        private final AtomicLong repetitions = new AtomicLong();
+        private final AtomicLong lastMillis;
+
+        Window(LogRecord record, long end) {
+            this.firstMillis = record.getMillis();
+            this.end = end;
+            this.lastMillis = new AtomicLong(firstMillis);
+        }
+
+        boolean repeat(LogRecord record, long millis) {
+            if (millis >= end) {
+                return false;
+            }
+            if (summary.get() == null) {
+                summary.compareAndSet(null, LogRecordSnapshots.snapshot(record));
+            }
+            long count;
+            do {
+                count = repetitions.get();
+                if (count == CLOSED) {
+                    return false;
+                }
+            } while (!repetitions.compareAndSet(count, count + 1));
+            lastMillis.accumulateAndGet(millis, Math::max);
+            return true;
+        }
+
+        void close(Consumer<ExtLogRecord> summaries) {
+            long count = repetitions.getAndSet(CLOSED);
+            if (count <= 0) {
+                return;
+            }
+            ExtLogRecord summary = this.summary.get();
+            Instant last = Instant.ofEpochMilli(lastMillis.get());
+            summary.putMdc(REPEAT_COUNT_KEY, Long.toString(count));
+            summary.putMdc(REPEAT_FIRST_KEY, Instant.ofEpochMilli(firstMillis).toString());
+            summary.putMdc(REPEAT_LAST_KEY, last.toString());
+            summary.setInstant(last);
+            summaries.accept(summary);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch;
+
+import java.util.function.Function;
+
+import org.jboss.logmanager.ExtLogRecord;
+
+import io.quarkiverse.logging.cloudwatch.queue.Utf8;
+import software.amazon.awssdk.services.cloudwatchlogs.model.InputLogEvent;
+
+/**
+ * A queued log event, either already formatted or holding the record it is formatted from later, by the publisher.
+ * <p>
+ * A deferred event is formatted once, by a single thread at a time, and its record is released right after.
+ */
+final class LogEvent {
+
+    private final long timestamp;
+    // The thread the event comes from, whose events are mostly in timestamp order.
+    private final long producer;
+    private String message;
+    private ExtLogRecord record;
+    private Function<ExtLogRecord, String> formatter;
+    private int sizeInBytes = -1;
+
+    private LogEvent(long timestamp, long producer, String message, ExtLogRecord record,
+            Function<ExtLogRecord, String> formatter) {
+        this.timestamp = timestamp;
+        this.producer = producer;
+        this.message = message;
+        this.record = record;
+        this.formatter = formatter;
+    }
+
+    /**
+     * An event produced by the current thread.
+     */
+    static LogEvent formatted(long timestamp, String message) {
+        return formatted(timestamp, message, Thread.currentThread().getId());
+    }
+
+    static LogEvent formatted(long timestamp, String message, long producer) {
+        return new LogEvent(timestamp, producer, message, null, null);
+    }
+
+    /**
+     * @param record a record whose MDC was already copied, so that it can be formatted from another thread
+     */
+    static LogEvent deferred(ExtLogRecord record, Function<ExtLogRecord, String> formatter) {
+        return new LogEvent(record.getMillis(), record.getLongThreadID(), null, record, formatter);
+    }
+
+    long timestamp() {
+        return timestamp;
+    }
+
+    long producer() {
+        return producer;
+    }
+
+    boolean isFormatted() {
+        return message != null;
+    }
+
+    /**
+     * Formats the event unless it already is.
+     */
+    String message() {
+        if (message == null) {
+            message = formatter.apply(record);
+            record = null;
+            formatter = null;
+        }
+        return message;
+    }
+
+    /**
+     * The size the event counts for in a PutLogEvents request, computed once: the UTF-8 length of the message plus the
+     * fixed overhead of an event.
+     */
+    int sizeInBytes() {
+        if (sizeInBytes < 0) {
+            sizeInBytes = Utf8.encodedLength(message()) + LogEventBatch.EVENT_OVERHEAD_IN_BYTES;
+        }
+        return sizeInBytes;
+    }
+
+    InputLogEvent toInputLogEvent() {
+        return InputLogEvent.builder().timestamp(timestamp).message(message()).build();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import software.amazon.awssdk.services.cloudwatchlogs.model.InputLogEvent;
+
+/**
+ * The log events of a single PutLogEvents call.
+ * <p>
+ * Besides the number of events, CloudWatch limits the size of a request to 1,048,576 bytes, computed as the sum of the
+ * UTF-8 length of all messages plus 26 bytes per event, and rejects requests whose events span more than 24 hours. An
+ * event is only accepted if the batch still honors all of these limits once the event is added.
+ * <p>
+ * CloudWatch also requires the events to be in timestamp order, which {@link #sortByTimestamp()} ensures before sending.
+ */
+class LogEventBatch {
+
+    static final int MAX_EVENTS = 10_000;
+    static final int MAX_BATCH_SIZE_IN_BYTES = 1_048_576;
+    static final int EVENT_OVERHEAD_IN_BYTES = 26;
+    static final long MAX_BATCH_TIME_SPAN_MILLIS = Duration.ofHours(24).toMillis();
+
+    private final int maxEvents;
+    private final List<InputLogEvent> events;
+    private final TimestampMerger merger;
+    private int sizeInBytes;
+    private long minTimestamp = Long.MAX_VALUE;
+    private long maxTimestamp = Long.MIN_VALUE;
+
+    LogEventBatch(int maxEvents) {
+        this.maxEvents = maxEvents;
+        this.events = new ArrayList<>(Math.min(maxEvents, 1024));
+        this.merger = new TimestampMerger(Math.min(maxEvents, 1024));
+    }
+
+    /**
+     * Adds the event to the batch unless that would break one of the PutLogEvents limits.
+     *
+     * @return {@code true} if the event was added, {@code false} if the batch has to be closed before the event
+     */
+    boolean tryAdd(LogEvent event) {
+        if (isFull()) {
+            return false;
+        }
+        int eventSize = event.sizeInBytes();
+        if (sizeInBytes + eventSize > MAX_BATCH_SIZE_IN_BYTES) {
+            return false;
+        }
+        long timestamp = event.timestamp();
+        long newMin = Math.min(minTimestamp, timestamp);
+        long newMax = Math.max(maxTimestamp, timestamp);
+        if (newMax - newMin > MAX_BATCH_TIME_SPAN_MILLIS) {
+            return false;
+        }
+        events.add(event.toInputLogEvent());
+        merger.add(timestamp, event.producer());
+        sizeInBytes += eventSize;
+        minTimestamp = newMin;
+        maxTimestamp = newMax;
+        return true;
+    }
+
+    boolean isFull() {
+        return events.size() >= maxEvents;
+    }
+
+    boolean isEmpty() {
+        return events.isEmpty();
+    }
+
+    int sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    List<InputLogEvent> events() {
+        return events;
+    }
+
+    /**
+     * Puts the events in timestamp order, by merging the runs of each producer.
+     */
+    void sortByTimestamp() {
+        if (merger.isOrdered()) {
+            return;
+        }
+        int[] order = merger.order();
+        InputLogEvent[] added = events.toArray(new InputLogEvent[0]);
+        for (int i = 0; i < order.length; i++) {
+            events.set(i, added[order[i]]);
+        }
+    }
+
+    /**
+     * Whether the event can be sent at all, i.e. whether it fits into an otherwise empty batch.
+     */
+    static boolean fitsInBatch(LogEvent event) {
+        return event.sizeInBytes() <= MAX_BATCH_SIZE_IN_BYTES;
+    }
+}
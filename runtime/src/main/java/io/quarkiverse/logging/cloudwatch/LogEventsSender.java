@@ -0,0 +1,41 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+import software.amazon.awssdk.services.cloudwatchlogs.model.InputLogEvent;
+
+/**
+ * Sends the batches of log events of a log stream to CloudWatch.
+ */
+interface LogEventsSender {
+
+    /**
+     * Sends the given events, sorted by timestamp, with a single PutLogEvents call. Nothing is thrown, the returned
+     * stage completes exceptionally if the events could not be sent.
+     */
+    CompletionStage<Void> send(List<InputLogEvent> events);
+
+    /**
+     * Waits up to the given time for the batches still being sent, if any.
+     */
+    default void close(Duration timeout) {
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.temporal.TemporalAccessor;
+import java.util.UUID;
+import java.util.logging.LogRecord;
+
+import org.jboss.logmanager.ExtLogRecord;
+
+/**
+ * Copies the records that are formatted after the logging call returned, on another thread.
+ */
+final class LogRecordSnapshots {
+
+    private LogRecordSnapshots() {
+    }
+
+    /**
+     * Copies the record, which is shared with the other handlers. The MDC is the one of the current thread until
+     * copied, and the parameters that are not immutable may be changed by the caller, so they are turned into strings.
+     */
+    static ExtLogRecord snapshot(LogRecord record) {
+        ExtLogRecord snapshot = new ExtLogRecord(ExtLogRecord.wrap(record));
+        snapshot.setMdc(snapshot.getMdcCopy());
+        Object[] parameters = record.getParameters();
+        if (parameters != null) {
+            Object[] copies = new Object[parameters.length];
+            for (int i = 0; i < parameters.length; i++) {
+                copies[i] = isImmutable(parameters[i]) ? parameters[i] : String.valueOf(parameters[i]);
+            }
+            snapshot.setParameters(copies);
+        }
+        return snapshot;
+    }
+
+    static boolean isImmutable(Object parameter) {
+        return parameter == null || parameter instanceof String || parameter instanceof Integer
+                || parameter instanceof Long || parameter instanceof Double || parameter instanceof Float
+                || parameter instanceof Short || parameter instanceof Byte || parameter instanceof Boolean
+                || parameter instanceof Character || parameter instanceof BigInteger || parameter instanceof BigDecimal
+                || parameter instanceof Enum || parameter instanceof TemporalAccessor || parameter instanceof UUID;
+    }
+}
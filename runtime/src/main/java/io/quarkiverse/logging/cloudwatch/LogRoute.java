@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch;
+
+import java.util.List;
+import java.util.logging.LogRecord;
+
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.MDC;
+
+/**
+ * Sends the records of some logger categories, or with a given MDC entry, to a log stream of their own, so that they
+ * don't share a queue and a sender with the other records.
+ */
+class LogRoute {
+
+    private final String name;
+    private final List<String> categories;
+    private final String mdcKey;
+    private final String mdcValue;
+    private final LogStreamPublisher publisher;
+
+    /**
+     * @param categories the logger categories routed, including their sub-categories
+     * @param mdcKey the MDC key of the records routed, or {@code null}
+     * @param mdcValue the value the MDC entry must have, or {@code null} for any value
+     */
+    LogRoute(String name, List<String> categories, String mdcKey, String mdcValue, LogStreamPublisher publisher) {
+        this.name = name;
+        this.categories = categories;
+        this.mdcKey = mdcKey;
+        this.mdcValue = mdcValue;
+        this.publisher = publisher;
+    }
+
+    String name() {
+        return name;
+    }
+
+    LogStreamPublisher publisher() {
+        return publisher;
+    }
+
+    boolean matches(LogRecord record) {
+        return matchesCategory(record.getLoggerName()) || matchesMdc(record);
+    }
+
+    private boolean matchesCategory(String loggerName) {
+        if (loggerName == null) {
+            return false;
+        }
+        for (String category : categories) {
+            if (loggerName.startsWith(category)
+                    && (loggerName.length() == category.length() || loggerName.charAt(category.length()) == '.')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesMdc(LogRecord record) {
+        if (mdcKey == null) {
+            return false;
+        }
+        // Unlike a copy of the whole MDC, reading a single entry allocates nothing.
+        String value = record instanceof ExtLogRecord ? ((ExtLogRecord) record).getMdc(mdcKey) : MDC.get(mdcKey);
+        return value != null && (mdcValue == null || mdcValue.equals(value));
+    }
+}
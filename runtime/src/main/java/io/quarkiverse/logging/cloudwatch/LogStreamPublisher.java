@@ -0,0 +1,564 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.logging.Logger;
+
+import io.quarkiverse.logging.cloudwatch.queue.EventQueue;
+import io.quarkiverse.logging.cloudwatch.queue.SpillLog;
+import software.amazon.awssdk.services.cloudwatchlogs.CloudWatchLogsClient;
+import software.amazon.awssdk.services.cloudwatchlogs.model.InputLogEvent;
+
+/**
+ * Queues the log events of a single log stream and sends them to CloudWatch in batches, from its own thread.
+ * <p>
+ * A batch that could not be sent is retried as decided by the {@link RetryEngine}. When it is not retried anymore, it is
+ * requeued. With a spill log, the events that don't fit into the queue and the requeued batches are written to disk
+ * instead. As soon as a batch goes through again, they are read back and merged with the queued events by timestamp:
+ * the requeued events are older than the queued ones, but the events spilled because the queue was full are newer.
+ * <p>
+ * When closed, the publisher sends all the remaining events until a deadline. The events left once it is reached are
+ * written to the spill log if any, so that they are sent after the next start.
+ */
+class LogStreamPublisher implements Runnable {
+
+    private static final Logger LOGGER = Logger.getLogger(LogStreamPublisher.class);
+    // How long to wait for the publisher thread to stop once interrupted.
+    private static final long INTERRUPTION_GRACE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // System.nanoTime() values may be negative, no actual value can stand for the absence of a deadline.
+    static final long NO_DEADLINE = Long.MIN_VALUE;
+    // From that many deferred events drained at once on, they are formatted in parallel.
+    static final int PARALLEL_FORMATTING_THRESHOLD = 512;
+
+    private final LogEventsSender sender;
+    private final String logStreamName;
+    private final Duration batchPeriod;
+    private final int drainThreshold;
+
+    private final EventQueue<LogEvent> eventBuffer;
+    private final SpillLog spillLog;
+    private final LoggingCloudWatchMetrics metrics;
+    private final RetryEngine retryEngine;
+
+    /*
+     * Whether the last batch was sent. While CloudWatch can't be reached, the spilled events are left on disk and the
+     * publisher waits for the next batch period before sending the next batch.
+     */
+    private volatile boolean cloudWatchAvailable = true;
+
+    /*
+     * Events of the batches waiting for their next attempt, lost if the publisher is stopped before.
+     */
+    private final AtomicInteger eventsAwaitingRetry = new AtomicInteger();
+
+    /*
+     * The System#nanoTime() when the last batch was sent, the next one waits for the throttling pause from then on. Only
+     * accessed by the scheduler thread, then by the thread closing the publisher once the scheduler terminated.
+     */
+    private long lastSendNanos = System.nanoTime();
+
+    /*
+     * Until the publisher is started, the events are only queued.
+     */
+    private volatile boolean started;
+
+    /*
+     * Events drained from the queue that did not fit into the previous batch because of the PutLogEvents size or time
+     * span limits. They are sent first with the next batch.
+     */
+    private final ArrayDeque<LogEvent> pending = new ArrayDeque<>();
+
+    // Events read from the spill log and not sent yet, merged with the pending ones by timestamp.
+    private final ArrayDeque<LogEvent> pendingSpilled = new ArrayDeque<>();
+
+    // The events just drained from the queue, before they are added to the pending ones.
+    private final List<LogEvent> drained = new ArrayList<>();
+
+    /*
+     * Set when a drain was submitted to the scheduler, because the backlog reached the drain threshold or to resume
+     * after a throttling pause, so that producers don't submit another one before it starts.
+     */
+    private final AtomicBoolean drainRequested = new AtomicBoolean();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    LogStreamPublisher(CloudWatchLogsClient cloudWatchLogsClient, String logGroup, String logStreamName, String token,
+            EventQueue<LogEvent> eventBuffer, int batchSize, Duration batchPeriod, int drainThreshold) {
+        this(new SyncLogEventsSender(cloudWatchLogsClient, logGroup, logStreamName, token), logStreamName, eventBuffer,
+                batchSize, batchPeriod, drainThreshold);
+    }
+
+    LogStreamPublisher(LogEventsSender sender, String logStreamName, EventQueue<LogEvent> eventBuffer, int batchSize,
+            Duration batchPeriod, int drainThreshold) {
+        this(sender, logStreamName, eventBuffer, null, new LoggingCloudWatchMetrics(), RetryEngine.noRetry(batchSize),
+                batchPeriod, drainThreshold);
+    }
+
+    LogStreamPublisher(LogEventsSender sender, String logStreamName, EventQueue<LogEvent> eventBuffer,
+            SpillLog spillLog, LoggingCloudWatchMetrics metrics, RetryEngine retryEngine, Duration batchPeriod,
+            int drainThreshold) {
+        this.sender = sender;
+        this.logStreamName = logStreamName;
+        this.eventBuffer = eventBuffer;
+        this.spillLog = spillLog;
+        this.metrics = metrics;
+        this.retryEngine = retryEngine;
+        metrics.registerPublisher(this);
+        this.batchPeriod = batchPeriod;
+        this.drainThreshold = drainThreshold;
+    }
+
+    String logStreamName() {
+        return logStreamName;
+    }
+
+    void start() {
+        started = true;
+        scheduler.scheduleAtFixedRate(this, 5, batchPeriod.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    int queueSize() {
+        return eventBuffer.size();
+    }
+
+    int spilledQueueSize() {
+        return spillLog == null ? 0 : spillLog.size();
+    }
+
+    /**
+     * How full the queue is, from 0 to 1.
+     */
+    double fillRatio() {
+        return (double) eventBuffer.size() / eventBuffer.capacity();
+    }
+
+    /**
+     * Queues the event, so that it can be sent later in batch asynchronously.
+     *
+     * @return {@code false} if the queue is full and the event could not be spilled either
+     */
+    boolean offer(LogEvent event) {
+        if (!eventBuffer.offer(event)) {
+            // A deferred event is formatted right away then, the spill log only holds messages.
+            return spillLog != null && spillLog.append(event.timestamp(), event.message());
+        }
+        // From the drain threshold on, the next batches are sent right away instead of waiting for the next period.
+        if (started && eventBuffer.size() >= drainThreshold && drainRequested.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this);
+            } catch (RejectedExecutionException e) {
+                // The publisher is being closed, the remaining events are sent by close().
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void run() {
+        drainRequested.set(false);
+        try {
+            LogEventBatch batch;
+            do {
+                long pause = remainingPauseMillis();
+                if (pause > 0) {
+                    // Throttled: the next batch is sent once the pause elapsed, without holding the scheduler thread.
+                    if (backlog() > 0) {
+                        scheduleDrain(pause);
+                    }
+                    return;
+                }
+                batch = nextBatch();
+                send(batch);
+            } while (shouldKeepDraining(batch) && !Thread.currentThread().isInterrupted());
+        } catch (Throwable t) {
+            // An exception must not escape, the scheduler would not run the publisher anymore.
+            LOGGER.error("Unable to assemble the next batch of log events", t);
+        }
+    }
+
+    private void scheduleDrain(long delayMillis) {
+        if (drainRequested.compareAndSet(false, true)) {
+            try {
+                scheduler.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // The publisher is being closed, the remaining events are sent by close().
+            }
+        }
+    }
+
+    /**
+     * Sends all the events queued so far, in as many batches as needed. The batches are sent concurrently if the sender
+     * allows it.
+     *
+     * @return a future completed once these events were sent, or were requeued or dropped because they could not be sent
+     */
+    CompletableFuture<Void> flush() {
+        CompletableFuture<Void> flushed = new CompletableFuture<>();
+        try {
+            scheduler.execute(() -> {
+                try {
+                    sendBacklog(NO_DEADLINE).whenComplete((ignored, failure) -> flushed.complete(null));
+                } catch (Throwable t) {
+                    LOGGER.error("Unable to flush the log events", t);
+                    flushed.complete(null);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The publisher is being closed, which sends the remaining events anyway.
+            flushed.complete(null);
+        }
+        return flushed;
+    }
+
+    /**
+     * Stops the publisher after sending the remaining events, unless the given deadline, a {@link System#nanoTime()}
+     * value, is reached first.
+     */
+    void close(long deadline) {
+        scheduler.shutdown();
+        if (!awaitTermination(deadline)) {
+            // Also cancels the pending retries, whose batches are then lost.
+            scheduler.shutdownNow();
+            if (!awaitTermination(System.nanoTime() + INTERRUPTION_GRACE_NANOS)) {
+                LOGGER.warnf("The publisher of log-stream %s did not stop, the remaining log events are not sent",
+                        logStreamName);
+                return;
+            }
+            int cancelled = eventsAwaitingRetry.getAndSet(0);
+            if (cancelled > 0) {
+                LOGGER.warnf("%d log events of log-stream %s were waiting to be sent again when the shutdown timeout expired",
+                        cancelled, logStreamName);
+                metrics.eventsLost(cancelled);
+            }
+        }
+
+        LOGGER.infof("Trying to send of last log messages of log-stream %s after shutdown.", logStreamName);
+        try {
+            sendBacklog(deadline).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            LOGGER.warnf("The last log messages of log-stream %s were still being sent when the shutdown timeout expired",
+                    logStreamName);
+        }
+        spillOrDropRemaining();
+        sender.close(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())));
+        if (spillLog != null) {
+            spillLog.close();
+        }
+    }
+
+    /**
+     * Sends the events queued so far, and only them so that a steady flow of new events does not keep the caller
+     * busy, unless the deadline, {@link #NO_DEADLINE} for none, is reached first.
+     */
+    private CompletableFuture<Void> sendBacklog(long deadline) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        sendBacklog(backlog(), deadline, new ArrayList<>(), done);
+        return done;
+    }
+
+    private void sendBacklog(int backlog, long deadline, List<CompletableFuture<Void>> sent,
+            CompletableFuture<Void> done) {
+        while (backlog > 0 && !isReached(deadline)) {
+            long pause = remainingPauseMillis();
+            if (pause > 0 && !scheduler.isShutdown()) {
+                // Flushing while throttled: the next batches are sent once the pause elapsed.
+                int remaining = backlog;
+                try {
+                    scheduler.schedule(() -> {
+                        try {
+                            sendBacklog(remaining, deadline, sent, done);
+                        } catch (Throwable t) {
+                            LOGGER.error("Unable to flush the log events", t);
+                            done.complete(null);
+                        }
+                    }, pause, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // The publisher is being closed, which sends the remaining events itself.
+                    break;
+                }
+            } else if (pause > 0) {
+                // Closing, on the thread of the caller.
+                sleep(Math.min(pause, TimeUnit.NANOSECONDS.toMillis(Math.max(0, deadline - System.nanoTime()))));
+            }
+            LogEventBatch batch = nextBatch();
+            if (batch.isEmpty()) {
+                break;
+            }
+            backlog -= batch.events().size();
+            sent.add(send(batch));
+            if (!cloudWatchAvailable) {
+                // The next batches would fail too, and be requeued again and again.
+                break;
+            }
+        }
+        CompletableFuture.allOf(sent.toArray(new CompletableFuture[0]))
+                .whenComplete((ignored, failure) -> done.complete(null));
+    }
+
+    static boolean isReached(long deadline) {
+        return deadline != NO_DEADLINE && deadline - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Writes the events that could not be sent before the shutdown deadline to the spill log, to send them after the
+     * next start.
+     */
+    private void spillOrDropRemaining() {
+        drainQueue(Integer.MAX_VALUE);
+        int remaining = pendingSpilled.size() + pending.size();
+        int spilled = 0;
+        LogEvent event;
+        while ((event = nextPending()) != null) {
+            removePending(event);
+            if (spillLog != null && spillLog.append(event.timestamp(), event.message())) {
+                spilled++;
+            }
+        }
+        if (remaining > spilled) {
+            LOGGER.warnf("%d log events of log-stream %s could not be sent before the shutdown timeout expired",
+                    remaining - spilled, logStreamName);
+            metrics.eventsLost(remaining - spilled);
+        }
+    }
+
+    private int backlog() {
+        int backlog = pendingSpilled.size() + pending.size() + eventBuffer.size();
+        if (spillLog != null) {
+            backlog += spillLog.size();
+        }
+        return backlog;
+    }
+
+    /*
+     * As long as the traffic is heavy, the next batch is sent as soon as the previous one was, so the throughput is
+     * bound by the PutLogEvents latency and not by the batch period.
+     */
+    private boolean shouldKeepDraining(LogEventBatch batch) {
+        if (batch.isEmpty() || !cloudWatchAvailable) {
+            return false;
+        }
+        int backlog = backlog();
+        // A batch closed because of one of the PutLogEvents limits means that a full request was just sent.
+        boolean closedByLimit = batch.isFull() || !pending.isEmpty() || !pendingSpilled.isEmpty();
+        return backlog >= drainThreshold || (backlog > 0 && closedByLimit);
+    }
+
+    /**
+     * @return a future completed once the batch was sent, or requeued or dropped after the last retry
+     */
+    private CompletableFuture<Void> send(LogEventBatch batch) {
+        CompletableFuture<Void> sent = new CompletableFuture<>();
+        List<InputLogEvent> events = batch.events();
+        if (events.isEmpty()) {
+            sent.complete(null);
+        } else {
+            lastSendNanos = System.nanoTime();
+            // Sort events by timestamp in ascending order as required by CloudWatch
+            batch.sortByTimestamp();
+            send(events, batch.sizeInBytes(), 0, sent);
+        }
+        return sent;
+    }
+
+    private void send(List<InputLogEvent> events, int sizeInBytes, int retries, CompletableFuture<Void> sent) {
+        long start = System.nanoTime();
+        sender.send(events).whenComplete((ignored, failure) -> {
+            long duration = System.nanoTime() - start;
+            if (failure == null) {
+                cloudWatchAvailable = true;
+                retryEngine.onSuccess();
+                metrics.batchSent(events.size(), sizeInBytes, duration);
+                sent.complete(null);
+            } else {
+                onSendFailure(events, sizeInBytes, retries, failure, duration, sent);
+            }
+        });
+    }
+
+    private void onSendFailure(List<InputLogEvent> events, int sizeInBytes, int retries, Throwable failure,
+            long duration, CompletableFuture<Void> sent) {
+        RetryEngine.ErrorClass errorClass = RetryEngine.classify(failure);
+        long delay = retryEngine.onFailure(errorClass, retries);
+        if (delay >= 0) {
+            try {
+                eventsAwaitingRetry.addAndGet(events.size());
+                scheduler.schedule(() -> {
+                    eventsAwaitingRetry.addAndGet(-events.size());
+                    send(events, sizeInBytes, retries + 1, sent);
+                }, delay, TimeUnit.MILLISECONDS);
+                metrics.batchRetried(duration);
+                LOGGER.debugf(failure, "PutLogEvents call failed (%s), the batch will be sent again in %d ms", errorClass,
+                        delay);
+                return;
+            } catch (RejectedExecutionException e) {
+                // The publisher is being closed, the batch is requeued.
+                eventsAwaitingRetry.addAndGet(-events.size());
+            }
+        }
+        if (errorClass == RetryEngine.ErrorClass.NOT_RETRYABLE) {
+            // CloudWatch answered, only this batch is rejected: the next ones are sent as usual.
+            LOGGER.error("PutLogEvents call failed, log events from the current batch will not be sent to CloudWatch",
+                    failure);
+            metrics.batchFailed(events.size(), duration);
+            sent.complete(null);
+            return;
+        }
+        cloudWatchAvailable = false;
+        int requeued = requeue(events);
+        LOGGER.warnf(failure, "PutLogEvents call failed (%s), %d of %d log events from the current batch were requeued",
+                errorClass, requeued, events.size());
+        metrics.batchFailed(events.size() - requeued, duration);
+        sent.complete(null);
+    }
+
+    /**
+     * Puts the events of a failed batch back, into the spill log if any or else into the queue.
+     *
+     * @return the number of events requeued
+     */
+    private int requeue(List<InputLogEvent> events) {
+        int requeued = 0;
+        if (spillLog != null) {
+            for (InputLogEvent event : events) {
+                if (spillLog.append(event.timestamp(), event.message())) {
+                    requeued++;
+                }
+            }
+        } else if (!scheduler.isShutdown()) {
+            // Once the publisher is closed, nothing would read the queue anymore.
+            for (InputLogEvent event : events) {
+                if (eventBuffer.offer(LogEvent.formatted(event.timestamp(), event.message()))) {
+                    requeued++;
+                }
+            }
+        }
+        return requeued;
+    }
+
+    /**
+     * How long to wait before the next PutLogEvents call while CloudWatch throttles the publisher.
+     */
+    private long remainingPauseMillis() {
+        long remaining = lastSendNanos + TimeUnit.MILLISECONDS.toNanos(retryEngine.pauseMillis()) - System.nanoTime();
+        return remaining <= 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            // The publisher is being closed, the batch is sent right away.
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Polls from the queue the events that will be part of the next batch. The batch is closed as soon as the next
+     * event would break one of the PutLogEvents limits, that event and the ones after it are kept for the next batch.
+     */
+    private LogEventBatch nextBatch() {
+        // Smaller than the configured batch size while CloudWatch throttles the publisher.
+        int batchSize = retryEngine.batchSize();
+        LogEventBatch batch = new LogEventBatch(batchSize);
+        /*
+         * While CloudWatch can't be reached, the spilled events are only read when there is nothing else to send, so
+         * that a batch still probes whether it is back.
+         */
+        if (spillLog != null && pendingSpilled.size() < batchSize
+                && (cloudWatchAvailable || (pending.isEmpty() && eventBuffer.isEmpty()))) {
+            spillLog.drain(batchSize - pendingSpilled.size(),
+                    (timestamp, message) -> pendingSpilled.add(LogEvent.formatted(timestamp, message)));
+        }
+        if (pending.size() < batchSize) {
+            drainQueue(batchSize - pending.size());
+        }
+        LogEvent event;
+        while ((event = nextPending()) != null) {
+            if (!LogEventBatch.fitsInBatch(event)) {
+                removePending(event);
+                LOGGER.warnf("Log event of %d bytes exceeds the maximum PutLogEvents request size and will be dropped",
+                        event.sizeInBytes());
+                metrics.eventsLost(1);
+            } else if (batch.tryAdd(event)) {
+                removePending(event);
+            } else {
+                break;
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * The oldest of the next spilled and queued events, the spilled one on a tie since requeued events were logged
+     * first.
+     */
+    private LogEvent nextPending() {
+        LogEvent spilled = pendingSpilled.peekFirst();
+        LogEvent queued = pending.peekFirst();
+        if (spilled == null || (queued != null && queued.timestamp() < spilled.timestamp())) {
+            return queued;
+        }
+        return spilled;
+    }
+
+    private void removePending(LogEvent event) {
+        if (pendingSpilled.peekFirst() == event) {
+            pendingSpilled.pollFirst();
+        } else {
+            pending.pollFirst();
+        }
+    }
+
+    /**
+     * Moves up to the given number of events from the queue to the pending ones. When there are many deferred events,
+     * they are formatted in parallel on the way, otherwise as they are added to the batch.
+     */
+    private void drainQueue(int maxEvents) {
+        if (eventBuffer.drainTo(drained, maxEvents) == 0) {
+            return;
+        }
+        try {
+            if (drained.size() >= PARALLEL_FORMATTING_THRESHOLD) {
+                drained.parallelStream().forEach(LogEvent::message);
+            }
+            pending.addAll(drained);
+        } finally {
+            drained.clear();
+        }
+    }
+
+    private boolean awaitTermination(long deadline) {
+        try {
+            return scheduler.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return scheduler.isTerminated();
+        }
+    }
+}
@@ -16,14 +16,17 @@
  */
 package io.quarkiverse.logging.cloudwatch;
 
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.logging.Level;
 
 import io.quarkus.runtime.annotations.ConfigPhase;
 import io.quarkus.runtime.annotations.ConfigRoot;
+import io.quarkus.runtime.configuration.MemorySize;
 import io.smallrye.config.ConfigMapping;
 import io.smallrye.config.WithDefault;
 import io.smallrye.config.WithName;
@@ -72,6 +75,29 @@ public interface LoggingCloudWatchConfig {
     @WithName("log-stream-name")
     Optional<String> logStreamName();
 
+    /**
+     * Number of log streams the log events are spread across, each one with its own queue and sender.
+     * If greater than 1, the log streams are named {@code <log-stream-name>-0} to {@code <log-stream-name>-<count - 1>}.
+     */
+    @WithName("log-stream-count")
+    @WithDefault("1")
+    int logStreamCount();
+
+    /**
+     * How the log events are spread across the log streams when {@code log-stream-count} is greater than 1.
+     */
+    @WithName("log-stream-distribution")
+    @WithDefault("thread")
+    LogStreamDistribution logStreamDistribution();
+
+    /**
+     * Routes sending the records of some logger categories, or with a given MDC entry, to a log stream of their own, with
+     * its own queue and sender, instead of the log streams above. A record goes to the first route it matches, in the
+     * alphabetical order of the route names.
+     */
+    @WithName("routes")
+    Map<String, RouteConfig> routes();
+
     /**
      * The CW log level.
      */
@@ -80,7 +106,17 @@ public interface LoggingCloudWatchConfig {
     Level level();
 
     /**
-     * Number of log events sent to CloudWatch per batch.
+     * Whether the handler is installed right away and queues the log events while the CloudWatch client is created and
+     * the log streams are set up on a background thread, instead of blocking the startup on calls to CloudWatch.
+     * Missing or invalid configuration values are still reported at startup, but a failure to reach CloudWatch is only
+     * logged and the log events are then not sent.
+     */
+    @WithName("background-initialization")
+    @WithDefault("false")
+    boolean backgroundInitialization();
+
+    /**
+     * Number of log events sent to CloudWatch per batch, from 1 to 10,000.
      * Defaults to 10,000 which is the maximum number of log events per batch allowed by CloudWatch.
      */
     @WithDefault("10000")
@@ -93,13 +129,152 @@ public interface LoggingCloudWatchConfig {
     @WithDefault("5s")
     Duration batchPeriod();
 
+    /**
+     * Number of queued log events from which batches are sent one after the other, without waiting for the next batch
+     * period, until the backlog drops below that number again. Must be at least 1.
+     * Defaults to the batch size.
+     */
+    @WithName("drain-threshold")
+    Optional<Integer> drainThreshold();
+
     /**
      * Maximum size of the log events queue.
      * If this is not set, the queue will have a capacity of {@link Integer#MAX_VALUE}.
+     * When logging to several log streams, this size is split evenly between the queues of the log streams.
      */
     @WithName("max-queue-size")
     Optional<Integer> maxQueueSize();
 
+    /**
+     * Whether the records below {@code load-shedding.never-drop-level} are sampled once the queue fill ratio goes above
+     * {@code load-shedding.threshold}, the lower the level the more records are dropped. Disabled by default, the
+     * records are then only dropped once the queue, and the spill log if any, is full.
+     */
+    @WithName("load-shedding.enabled")
+    @WithDefault("false")
+    boolean loadSheddingEnabled();
+
+    /**
+     * Queue fill ratio, between 0 and 0.9, from which the records below {@code load-shedding.never-drop-level} are
+     * sampled. From a fill ratio of 0.9 on, all of them are dropped, so that the rest of the queue is kept for the records
+     * at or above that level.
+     */
+    @WithName("load-shedding.threshold")
+    @WithDefault("0.5")
+    double loadSheddingThreshold();
+
+    /**
+     * Level from which records are never dropped to relieve the queue.
+     */
+    @WithName("load-shedding.never-drop-level")
+    @WithDefault("ERROR")
+    Level loadSheddingNeverDropLevel();
+
+    /**
+     * Type of the queue the log events are handed over through, from the threads that log them to the thread that sends
+     * them to CloudWatch.
+     * With {@code ring-buffer}, the queue is allocated up front with a capacity of {@code max-queue-size} rounded up to the
+     * next power of two, or 65,536 events if that size is not set.
+     */
+    @WithName("queue-type")
+    @WithDefault("linked")
+    QueueType queueType();
+
+    /**
+     * How the log events are sent to CloudWatch.
+     * With {@code sync}, the publisher thread of a log stream sends one batch at a time and waits for the response. With
+     * {@code async}, the batches are sent with the non-blocking Netty based client and several batches of a log stream
+     * can be sent at the same time, without sequence tokens. With {@code virtual-threads}, the blocking client sends each
+     * batch from its own virtual thread, several batches of a log stream at the same time without sequence tokens too.
+     */
+    @WithName("transport")
+    @WithDefault("sync")
+    Transport transport();
+
+    /**
+     * Whether the sequence token of each log stream is fetched at startup and passed along with each PutLogEvents call.
+     * CloudWatch does not need sequence tokens anymore and ignores them, this is only useful for CloudWatch compatible
+     * endpoints that still require them. Only used with the {@code sync} transport.
+     */
+    @WithName("sequence-tokens")
+    @WithDefault("false")
+    boolean sequenceTokens();
+
+    /**
+     * Maximum number of batches of a log stream being sent at the same time with the {@code async} and
+     * {@code virtual-threads} transports.
+     */
+    @WithName("max-in-flight-batches")
+    @WithDefault("4")
+    int maxInFlightBatches();
+
+    /**
+     * Maximum number of times a batch is sent again after being throttled, after a server error or after a network
+     * error, before it is requeued. Set to 0 to requeue failed batches right away.
+     */
+    @WithName("retry.max-retries")
+    @WithDefault("5")
+    int retryMaxRetries();
+
+    /**
+     * Upper bound of the randomized delay before the first retry of a batch. The bound doubles with each retry.
+     */
+    @WithName("retry.initial-backoff")
+    @WithDefault("200ms")
+    Duration retryInitialBackoff();
+
+    /**
+     * Maximum delay before a retry, also the maximum pause between two PutLogEvents calls while being throttled.
+     */
+    @WithName("retry.max-backoff")
+    @WithDefault("20s")
+    Duration retryMaxBackoff();
+
+    /**
+     * Number of retries a log stream can use for each class of errors (throttling, server errors, network errors).
+     * Each batch sent gives one retry back to each class. Once a budget is used up, failed batches of that class are
+     * requeued without being retried.
+     */
+    @WithName("retry.budget")
+    @WithDefault("100")
+    int retryBudget();
+
+    /**
+     * Directory where the log events are spilled to when the log events queue is full or when CloudWatch can't be
+     * reached, and from which they are sent once CloudWatch is available again, even after a restart.
+     * Each log stream uses its own subdirectory. Spilling is disabled if this is not set.
+     * With the default {@code linked} queue and no {@code max-queue-size}, the queue is never full: the events are only
+     * spilled when a batch that could not be sent is requeued, or when the shutdown timeout expires.
+     * The spill is best-effort: the events read back from it are removed from disk before they are sent. Those still
+     * unsent are written again on a graceful shutdown, but are lost if the application crashes.
+     */
+    @WithName("spill.directory")
+    Optional<Path> spillDirectory();
+
+    /**
+     * Maximum disk space used by the spilled log events of a log stream. Once it is reached, log events are dropped.
+     */
+    @WithName("spill.max-size")
+    @WithDefault("256M")
+    MemorySize spillMaxSize();
+
+    /**
+     * Size of the memory-mapped files the spilled log events are written to. A log event larger than that is never
+     * spilled.
+     */
+    @WithName("spill.segment-size")
+    @WithDefault("16M")
+    MemorySize spillSegmentSize();
+
+    /**
+     * Maximum amount of time the handler takes at shutdown to send the remaining log events. The log events left once it
+     * expires are written to the spill directory if any, and are lost otherwise. This should fit within the termination
+     * grace period of the application, which is 30 seconds by default on Kubernetes.
+     */
+    @WithName("shutdown-timeout")
+    @WithDefault("20s")
+    Duration shutdownTimeout();
+
     /**
      * Service environment added as a {@code service.environment} field to each log record when available.
      */
@@ -114,6 +289,43 @@ public interface LoggingCloudWatchConfig {
     @WithName("api-call-timeout")
     Optional<Duration> apiCallTimeout();
 
+    /**
+     * Maximum number of connections opened to CloudWatch.
+     * Defaults to 50 with the {@code sync} transport, to {@code max-in-flight-batches} times {@code log-stream-count}
+     * with the {@code async} transport, and to the larger of the two with the {@code virtual-threads} transport.
+     */
+    @WithName("http.max-connections")
+    Optional<Integer> httpMaxConnections();
+
+    /**
+     * Maximum amount of time a connection stays idle in the connection pool before being closed.
+     */
+    @WithName("http.connection-max-idle-time")
+    Optional<Duration> httpConnectionMaxIdleTime();
+
+    /**
+     * Maximum amount of time a connection is reused before being closed, no limit if this is not set.
+     */
+    @WithName("http.connection-time-to-live")
+    Optional<Duration> httpConnectionTimeToLive();
+
+    /**
+     * Whether TCP keep-alive probes are sent on the connections, so that connections dropped by a NAT gateway or a load
+     * balancer while idle are detected.
+     */
+    @WithName("http.tcp-keep-alive")
+    @WithDefault("false")
+    boolean httpTcpKeepAlive();
+
+    /**
+     * Whether Nagle's algorithm is disabled, with {@code TCP_NODELAY}, on the connections of the {@code async} transport
+     * only. The {@code sync} and {@code virtual-threads} transports use the Apache HTTP client, which does not expose
+     * that option and always sets {@code TCP_NODELAY}, whatever this property is set to.
+     */
+    @WithName("http.tcp-no-delay")
+    @WithDefault("true")
+    boolean httpTcpNoDelay();
+
     /**
      * Default credentials provider enabled added as a {@code quarkus.log.cloudwatch.default-credentials-provider.enabled}
      */
@@ -127,15 +339,82 @@ public interface LoggingCloudWatchConfig {
     @WithName("endpoint-override")
     Optional<String> endpointOverride();
 
+    /**
+     * Format of the log events.
+     * With {@code ecs}, the records are sent as Elastic Common Schema JSON documents. {@code compact-json} sends JSON
+     * documents with short field names and without the timestamp, which CloudWatch keeps for each log event anyway, and
+     * {@code plain-text} sends the records as the console prints them, without the timestamp either. With
+     * {@code custom}, the records are formatted by the CDI bean implementing
+     * {@code io.quarkiverse.logging.cloudwatch.format.CloudWatchLogFormatter}, to which {@code max-message-length} and
+     * the {@code stack-trace} settings do not apply.
+     */
+    @WithName("format")
+    @WithDefault("ecs")
+    LogFormat format();
+
     /**
      * Max message length
      * The message will be truncated if it exceeds this value.
      * 0 means no limit.
+     * The stack trace is shortened first, then the message, so that a JSON log event remains valid. A log event whose
+     * other fields alone exceed this length is cut at this length, and is then not valid JSON anymore.
      */
     @WithName("max-message-length")
     @WithDefault("0")
     int maxMessageLength();
 
+    /**
+     * Maximum length of the stack trace of a log event, 0 meaning no limit. Beyond it, the remaining frames of each
+     * exception are replaced by a line telling how many were truncated, and the causes that don't fit anymore are left
+     * out. The length is counted in characters of the stack trace before it is escaped as JSON. Stack traces are also
+     * truncated first when a log event exceeds {@code max-message-length}.
+     */
+    @WithName("stack-trace.max-length")
+    @WithDefault("0")
+    int stackTraceMaxLength();
+
+    /**
+     * Packages whose consecutive stack frames are collapsed into a single line, subpackages included, such as
+     * {@code java.lang.reflect,jdk.internal.reflect,io.netty,io.vertx,org.jboss.threads}. None are collapsed by default.
+     */
+    @WithName("stack-trace.collapsed-packages")
+    Optional<List<String>> stackTraceCollapsedPackages();
+
+    /**
+     * Whether the log records repeating the same message are folded. The first record of a logger, level and message
+     * template is sent right away, the same records logged within the coalescing window are only counted. Once the
+     * window closes, a copy of the first record is sent with the number of repetitions and the time of the first and
+     * last one, as the {@code log.repeat.count}, {@code log.repeat.first} and {@code log.repeat.last} MDC entries.
+     */
+    @WithName("coalescing.enabled")
+    @WithDefault("false")
+    boolean coalescingEnabled();
+
+    /**
+     * How long the repetitions of a record are folded after its first occurrence.
+     */
+    @WithName("coalescing.window")
+    @WithDefault("10s")
+    Duration coalescingWindow();
+
+    /**
+     * Maximum number of distinct messages whose repetitions are folded at once. The records beyond that are sent until
+     * a window closes.
+     */
+    @WithName("coalescing.max-fingerprints")
+    @WithDefault("1000")
+    int coalescingMaxFingerprints();
+
+    /**
+     * Whether the log records are formatted by the publishers instead of the threads logging them. Only a snapshot of
+     * the record is queued then, and large batches are formatted in parallel, which takes the formatting off the
+     * latency of the application. The parameters of a message are formatted after the logging call returned: those
+     * that are not immutable values, such as strings, numbers, enums or dates, are converted to strings when logged.
+     */
+    @WithName("deferred-formatting")
+    @WithDefault("false")
+    boolean deferredFormatting();
+
     /*
      * We need to validate that the values are present, even if marked as optional.
      * We need to mark them as optional, as otherwise the config would mark them
@@ -160,6 +439,143 @@ public interface LoggingCloudWatchConfig {
         if (logStreamName().isEmpty()) {
             errors.add("quarkus.log.cloudwatch.log-stream-name");
         }
+        if (batchSize() < 1 || batchSize() > LogEventBatch.MAX_EVENTS) {
+            errors.add("quarkus.log.cloudwatch.batch-size");
+        }
+        if (drainThreshold().isPresent() && drainThreshold().get() < 1) {
+            errors.add("quarkus.log.cloudwatch.drain-threshold");
+        }
+        if (logStreamCount() < 1) {
+            errors.add("quarkus.log.cloudwatch.log-stream-count");
+        }
+        if (maxInFlightBatches() < 1) {
+            errors.add("quarkus.log.cloudwatch.max-in-flight-batches");
+        }
+        if (retryMaxRetries() < 0) {
+            errors.add("quarkus.log.cloudwatch.retry.max-retries");
+        }
+        if (retryBudget() < 0) {
+            errors.add("quarkus.log.cloudwatch.retry.budget");
+        }
+        if (loadSheddingThreshold() < 0 || loadSheddingThreshold() >= AdmissionController.FULL_PRESSURE_FILL_RATIO) {
+            errors.add("quarkus.log.cloudwatch.load-shedding.threshold");
+        }
+        routes().forEach((name, route) -> {
+            if (route.categories().isEmpty() && route.mdcKey().isEmpty()) {
+                errors.add("quarkus.log.cloudwatch.routes.\"" + name + "\".categories");
+            }
+        });
+        if (httpMaxConnections().isPresent() && httpMaxConnections().get() < 1) {
+            errors.add("quarkus.log.cloudwatch.http.max-connections");
+        }
+        if (spillSegmentSize().asLongValue() < 1024 || spillSegmentSize().asLongValue() > Integer.MAX_VALUE) {
+            errors.add("quarkus.log.cloudwatch.spill.segment-size");
+        }
+        if (stackTraceMaxLength() < 0) {
+            errors.add("quarkus.log.cloudwatch.stack-trace.max-length");
+        }
+        if (coalescingEnabled() && coalescingWindow().toMillis() < 1) {
+            errors.add("quarkus.log.cloudwatch.coalescing.window");
+        }
+        if (coalescingEnabled() && coalescingMaxFingerprints() < 1) {
+            errors.add("quarkus.log.cloudwatch.coalescing.max-fingerprints");
+        }
         return errors;
     }
+
+    interface RouteConfig {
+
+        /**
+         * Log group of the route. Defaults to {@code log-group}.
+         */
+        @WithName("log-group")
+        Optional<String> logGroup();
+
+        /**
+         * Log stream of the route. Defaults to {@code <log-stream-name>-<route name>}.
+         */
+        @WithName("log-stream-name")
+        Optional<String> logStreamName();
+
+        /**
+         * Logger categories whose records are routed, along with the records of their sub-categories.
+         */
+        @WithName("categories")
+        Optional<List<String>> categories();
+
+        /**
+         * MDC key of the records routed, whatever their category.
+         */
+        @WithName("mdc-key")
+        Optional<String> mdcKey();
+
+        /**
+         * Value the MDC entry must have for the record to be routed. Any value by default.
+         */
+        @WithName("mdc-value")
+        Optional<String> mdcValue();
+
+        /**
+         * Maximum size of the log events queue of the route. Defaults to {@code max-queue-size}.
+         */
+        @WithName("max-queue-size")
+        Optional<Integer> maxQueueSize();
+    }
+
+    enum Transport {
+        /**
+         * The blocking client, over the Apache HTTP client.
+         */
+        SYNC,
+        /**
+         * The non-blocking client, over the Netty HTTP client.
+         */
+        ASYNC,
+        /**
+         * The blocking client, over the Apache HTTP client, with each batch sent from its own virtual thread. Requires
+         * Java 21 or later, platform threads are used instead on older versions.
+         */
+        VIRTUAL_THREADS
+    }
+
+    enum QueueType {
+        /**
+         * A linked queue, bounded by {@code max-queue-size} if set. Logging threads take a lock to queue an event.
+         */
+        LINKED,
+        /**
+         * A pre-allocated lock-free ring buffer, preferable when many threads log concurrently.
+         */
+        RING_BUFFER
+    }
+
+    enum LogFormat {
+        /**
+         * Elastic Common Schema JSON documents.
+         */
+        ECS,
+        /**
+         * JSON documents with short field names, without the ECS envelope.
+         */
+        COMPACT_JSON,
+        /**
+         * Text, as printed by the console.
+         */
+        PLAIN_TEXT,
+        /**
+         * The CDI bean implementing {@code CloudWatchLogFormatter}.
+         */
+        CUSTOM
+    }
+
+    enum LogStreamDistribution {
+        /**
+         * The events of a thread always go to the same log stream.
+         */
+        THREAD,
+        /**
+         * The events go to each log stream in turn.
+         */
+        ROUND_ROBIN
+    }
 }
@@ -18,98 +18,236 @@ package io.quarkiverse.logging.cloudwatch;
 
 import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.logging.Handler;
 import java.util.logging.LogRecord;
 
 import org.jboss.logging.Logger;
+import org.jboss.logmanager.ExtLogRecord;
 
+import io.quarkiverse.logging.cloudwatch.LoggingCloudWatchConfig.LogStreamDistribution;
+import io.quarkiverse.logging.cloudwatch.format.CloudWatchLogFormatter;
 import io.quarkiverse.logging.cloudwatch.format.ElasticCommonSchemaLogFormatter;
-import software.amazon.awssdk.services.cloudwatchlogs.CloudWatchLogsClient;
-import software.amazon.awssdk.services.cloudwatchlogs.model.InputLogEvent;
-import software.amazon.awssdk.services.cloudwatchlogs.model.InvalidSequenceTokenException;
-import software.amazon.awssdk.services.cloudwatchlogs.model.PutLogEventsRequest;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
 
 class LoggingCloudWatchHandler extends Handler {
 
     private static final Logger LOGGER = Logger.getLogger(LoggingCloudWatchHandler.class);
-    private static final int BATCH_MAX_ATTEMPTS = 10;
-    private static final String TRUNCATED_TAG = " (...)";
-    private CloudWatchLogsClient cloudWatchLogsClient;
-    private String logStreamName;
-    private String logGroupName;
-    private String sequenceToken;
-    private int batchSize;
-    private Optional<String> serviceEnvironment;
-    private int maxMessageLength;
+    static final Duration DEFAULT_SHUTDOWN_TIMEOUT = Duration.ofSeconds(20);
+    private CloudWatchLogFormatter formatter = new ElasticCommonSchemaLogFormatter(Optional.empty());
+
+    private LogStreamPublisher[] publishers;
+    private LogRoute[] routes = new LogRoute[0];
+    // The publishers of the log streams, then the ones of the routes.
+    private LogStreamPublisher[] allPublishers;
+    private LogStreamDistribution logStreamDistribution;
+    private AdmissionController admissionController = AdmissionController.ADMIT_ALL;
+    private LoggingCloudWatchMetrics metrics = new LoggingCloudWatchMetrics();
+    private Duration shutdownTimeout = DEFAULT_SHUTDOWN_TIMEOUT;
+    private boolean deferredFormatting;
+    private final Function<ExtLogRecord, String> deferredFormatter = this::formatDeferred;
+    private LogCoalescer coalescer;
+    // The clients and credentials providers the publishers send through, closed after them.
+    private final List<SdkAutoCloseable> resources = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nextPublisher = new AtomicInteger();
+    private volatile boolean closed;
+    // Guarded by this, interrupted if the handler is closed before it completed.
+    private Thread initializer;
 
-    private BlockingQueue<InputLogEvent> eventBuffer;
+    LoggingCloudWatchHandler() {
+    }
 
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    /**
+     * The records are queued from the construction of the handler on, but only sent once it is started.
+     *
+     * @param routes the routes, in the order they are matched against the records, the records that none matches going
+     *        to the given publishers
+     * @param formatter formats the records, within the maximum message length
+     * @param deferredFormatting whether the records are formatted by the publishers instead of the logging threads
+     * @param coalescer folds the repeated records, {@code null} to send them all
+     */
+    LoggingCloudWatchHandler(List<LogStreamPublisher> publishers, List<LogRoute> routes,
+            LogStreamDistribution logStreamDistribution, AdmissionController admissionController,
+            LoggingCloudWatchMetrics metrics, CloudWatchLogFormatter formatter, Duration shutdownTimeout,
+            boolean deferredFormatting, LogCoalescer coalescer) {
+        this.publishers = publishers.toArray(new LogStreamPublisher[0]);
+        this.routes = routes.toArray(new LogRoute[0]);
+        List<LogStreamPublisher> allPublishers = new ArrayList<>(publishers);
+        for (LogRoute route : routes) {
+            allPublishers.add(route.publisher());
+        }
+        this.allPublishers = allPublishers.toArray(new LogStreamPublisher[0]);
+        this.logStreamDistribution = logStreamDistribution;
+        this.admissionController = admissionController;
+        this.metrics = metrics;
+        metrics.registerAdmissionController(admissionController);
+        this.formatter = formatter;
+        this.shutdownTimeout = shutdownTimeout;
+        this.deferredFormatting = deferredFormatting;
+        this.coalescer = coalescer;
+        if (coalescer != null) {
+            metrics.registerCoalescer(coalescer);
+        }
+    }
 
-    private Publisher publisher;
+    /**
+     * Starts sending the queued records to CloudWatch, unless the handler is already closed.
+     */
+    synchronized void start() {
+        if (closed) {
+            return;
+        }
+        for (LogStreamPublisher publisher : allPublishers) {
+            publisher.start();
+        }
+        if (coalescer != null) {
+            coalescer.start(this::publishSummary);
+        }
+    }
 
-    LoggingCloudWatchHandler() {
+    /**
+     * Runs the given initialization on a thread of its own, which is interrupted if the handler is closed meanwhile. The
+     * initialization is expected to start the handler once done.
+     */
+    synchronized void initializeInBackground(Runnable initialization) {
+        if (closed) {
+            return;
+        }
+        initializer = new Thread(initialization, "cloudwatch-logs-initializer");
+        initializer.setDaemon(true);
+        initializer.start();
     }
 
-    LoggingCloudWatchHandler(CloudWatchLogsClient cloudWatchLogsClient, String logGroup, String logStreamName, String token,
-            Optional<Integer> maxQueueSize, int batchSize, Duration batchPeriod, Optional<String> serviceEnvironment,
-            int maxMessageLength) {
-        this.logGroupName = logGroup;
-        this.cloudWatchLogsClient = cloudWatchLogsClient;
-        this.logStreamName = logStreamName;
-        this.sequenceToken = token;
-        eventBuffer = maxQueueSize.<BlockingQueue<InputLogEvent>> map(LinkedBlockingQueue::new)
-                .orElseGet(LinkedBlockingQueue::new);
-        this.batchSize = batchSize;
-        this.serviceEnvironment = serviceEnvironment;
-        this.maxMessageLength = maxMessageLength;
+    boolean isClosed() {
+        return closed;
+    }
 
-        this.publisher = new Publisher();
-        scheduler.scheduleAtFixedRate(publisher, 5, batchPeriod.toMillis(), TimeUnit.MILLISECONDS);
+    /**
+     * Closes the given resource once the publishers are closed, or right away if the handler is already closed.
+     */
+    void closeOnShutdown(SdkAutoCloseable resource) {
+        resources.add(resource);
+        if (closed && resources.remove(resource)) {
+            closeResource(resource);
+        }
     }
 
     @Override
     public void publish(LogRecord record) {
-        if (isBelowThreshold(record)) {
+        if (closed || isBelowThreshold(record)) {
+            return;
+        }
+
+        if (coalescer != null && coalescer.coalesce(record)) {
             return;
         }
 
-        String body = formatMessage(record);
+        // Shedding happens before formatting, so that dropped records cost as little as possible.
+        LogStreamPublisher publisher = publisherFor(record);
+        if (!admissionController.admit(record.getLevel(), publisher.fillRatio())) {
+            return;
+        }
 
-        InputLogEvent logEvent = InputLogEvent.builder()
-                .message(body)
-                .timestamp(record.getInstant().toEpochMilli())
-                .build();
+        LogEvent logEvent;
+        if (deferredFormatting) {
+            logEvent = LogEvent.deferred(LogRecordSnapshots.snapshot(record), deferredFormatter);
+        } else {
+            logEvent = LogEvent.formatted(record.getInstant().toEpochMilli(), formatMessage(record));
+        }
 
         // Queue this up, so that it can be flushed later in batch asynchronously
-        boolean inserted = eventBuffer.offer(logEvent);
+        boolean inserted = publisher.offer(logEvent);
         if (!inserted) {
+            admissionController.recordDropped(record.getLevel());
             LOGGER.warn(
                     "Maximum size of the CloudWatch log events queue reached. Consider increasing that size from the configuration.");
         }
     }
 
+    /**
+     * Queues the summary of repeated records. Summaries are not shed, they stand for many records already.
+     */
+    private void publishSummary(ExtLogRecord summary) {
+        if (!publisherFor(summary).offer(LogEvent.deferred(summary, deferredFormatter))) {
+            admissionController.recordDropped(summary.getLevel());
+        }
+    }
+
     String formatMessage(LogRecord record) {
-        String format;
+        return formatMessage(record, formatParameters(record), false);
+    }
+
+    /**
+     * Formats a snapshot on the publisher side, where a failure would cost the whole batch. The message template is sent
+     * as is if it can't be formatted with the parameters.
+     */
+    private String formatDeferred(ExtLogRecord snapshot) {
+        String message;
+        try {
+            message = formatParameters(snapshot);
+        } catch (RuntimeException e) {
+            LOGGER.debugf(e, "Unable to format the log message %s", snapshot.getMessage());
+            message = String.valueOf(snapshot.getMessage());
+        }
+        return formatMessage(snapshot, message, true);
+    }
+
+    private static String formatParameters(LogRecord record) {
         if (isLogWithoutFormatPlaceholder(record)) {
             // e.g. log.info("blabla")
-            format = String.format("%s", record.getMessage());
-        } else {
-            // e.g. log.info("info logging: %", info)
-            format = String.format(record.getMessage(), record.getParameters());
+            return String.valueOf(record.getMessage());
+        }
+        // e.g. log.info("info logging: %", info)
+        return String.format(record.getMessage(), record.getParameters());
+    }
+
+    private String formatMessage(LogRecord record, String message, boolean snapshot) {
+        // The record is shared with the other handlers, so the formatted message is passed along instead of set on it.
+        ExtLogRecord extRecord = ExtLogRecord.wrap(record);
+        return snapshot ? formatter.formatSnapshot(extRecord, message) : formatter.format(extRecord, message);
+    }
+
+    /**
+     * Picks the log stream the next event will be sent to.
+     */
+    private LogStreamPublisher publisherFor(LogRecord record) {
+        for (LogRoute route : routes) {
+            if (route.matches(record)) {
+                return route.publisher();
+            }
         }
-        record.setMessage(format);
-        ElasticCommonSchemaLogFormatter formatter = new ElasticCommonSchemaLogFormatter(serviceEnvironment);
+        return nextPublisher();
+    }
 
-        String formattedMessage = formatter.format(record);
-        if (maxMessageLength > 0 && formattedMessage.length() > maxMessageLength) {
-            return formattedMessage.substring(0, maxMessageLength - TRUNCATED_TAG.length()) + TRUNCATED_TAG;
+    private LogStreamPublisher nextPublisher() {
+        if (publishers.length == 1) {
+            return publishers[0];
+        }
+        int index;
+        switch (logStreamDistribution) {
+            case ROUND_ROBIN:
+                index = nextPublisher.getAndIncrement();
+                break;
+            case THREAD:
+            default:
+                // The events of a thread always go to the same log stream, so they stay in order within that stream.
+                index = (int) Thread.currentThread().getId();
+                break;
         }
-        return formattedMessage;
+        return publishers[Math.floorMod(index, publishers.length)];
+    }
+
+    AdmissionController admissionController() {
+        return admissionController;
+    }
+
+    LoggingCloudWatchMetrics metrics() {
+        return metrics;
     }
 
     private static boolean isLogWithoutFormatPlaceholder(LogRecord record) {
@@ -123,93 +261,78 @@ class LoggingCloudWatchHandler extends Handler {
         return record.getLevel().intValue() < getLevel().intValue();
     }
 
+    /**
+     * Starts sending all the queued records without waiting for the next batch period, and returns right away.
+     */
     @Override
     public void flush() {
+        flushAsync();
+    }
+
+    /**
+     * Sends all the records queued so far, the log streams concurrently.
+     *
+     * @return a future completed once these records were sent, or were requeued or dropped because they could not be
+     *         sent
+     */
+    CompletableFuture<Void> flushAsync() {
+        CompletableFuture<?>[] flushed = new CompletableFuture[allPublishers.length];
+        for (int i = 0; i < allPublishers.length; i++) {
+            flushed[i] = allPublishers[i].flush();
+        }
+        return CompletableFuture.allOf(flushed);
     }
 
+    /**
+     * Sends the remaining records, giving up once the shutdown timeout expires. The log streams are closed concurrently,
+     * all within the same timeout.
+     */
     @Override
     public void close() throws SecurityException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (initializer != null && initializer != Thread.currentThread()) {
+                initializer.interrupt();
+            }
+        }
         LOGGER.info("Shutting down and awaiting termination");
-        shutdownAndAwaitTermination(scheduler);
-
-        LOGGER.info("Trying to send of last log messages after shutdown.");
-        publisher.run();
-    }
-
-    private class Publisher implements Runnable {
-
-        @Override
-        public void run() {
+        long deadline = System.nanoTime() + shutdownTimeout.toNanos();
+        if (coalescer != null) {
+            coalescer.close(this::publishSummary);
+        }
+        if (allPublishers.length == 1) {
+            allPublishers[0].close(deadline);
+        } else {
+            List<Thread> threads = new ArrayList<>(allPublishers.length);
+            for (LogStreamPublisher publisher : allPublishers) {
+                Thread thread = new Thread(() -> publisher.close(deadline),
+                        "cloudwatch-logs-shutdown-" + publisher.logStreamName());
+                thread.start();
+                threads.add(thread);
+            }
             try {
-                // First, let's poll from the queue the events that will be part of the batch.
-                List<InputLogEvent> events = new ArrayList<>(Math.min(eventBuffer.size(), batchSize));
-                eventBuffer.drainTo(events, batchSize);
-                if (!events.isEmpty()) {
-
-                    // Sort events by timestamp in ascending order as required by CloudWatch
-                    events.sort(Comparator.comparing(InputLogEvent::timestamp));
-
-                    // The sequence token needed for this request is set below.
-                    PutLogEventsRequest request = PutLogEventsRequest.builder()
-                            .logGroupName(logGroupName)
-                            .logStreamName(logStreamName)
-                            .logEvents(events)
-                            .build();
-
-                    /*
-                     * The current sequence token may not be valid if it was used by another application or pod.
-                     * If that happens, we'll retry using the token from the InvalidSequenceTokenException.
-                     */
-                    for (int i = 1; i <= BATCH_MAX_ATTEMPTS; i++) {
-
-                        request = request.toBuilder()
-                                .sequenceToken(sequenceToken)
-                                .build();
-
-                        try {
-                            /*
-                             * It's time to put the log events into CloudWatch.
-                             * If that works, we'll use the sequence token from the response for the next put call.
-                             */
-                            sequenceToken = cloudWatchLogsClient.putLogEvents(request).nextSequenceToken();
-                            // The sequence token was accepted, we don't need to retry.
-                            break;
-                        } catch (InvalidSequenceTokenException e) {
-                            LOGGER.debugf("PutLogEvents call failed because of an invalid sequence token", e);
-
-                            // We'll use the sequence token from the exception for the next put call.
-                            sequenceToken = e.expectedSequenceToken();
-
-                            // If the last attempt failed, the log events from the current batch are lost.
-                            if (i == BATCH_MAX_ATTEMPTS) {
-                                LOGGER.warn(
-                                        "Too many retries for a PutLogEvents call, log events from the current batch will not be sent to CloudWatch");
-                            }
-                        }
-                    }
+                for (Thread thread : threads) {
+                    thread.join();
                 }
-            } catch (Throwable t) {
-                LOGGER.error("PutLogEvents call failed, log events from the current batch will not be sent to CloudWatch", t);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (SdkAutoCloseable resource : resources) {
+            if (resources.remove(resource)) {
+                closeResource(resource);
             }
         }
     }
 
-    private void shutdownAndAwaitTermination(ExecutorService pool) {
-        pool.shutdown(); // Disable new tasks from being submitted
+    private static void closeResource(SdkAutoCloseable resource) {
         try {
-            // Wait a while for existing tasks to terminate
-            if (!pool.awaitTermination(60, TimeUnit.SECONDS)) {
-                pool.shutdownNow(); // Cancel currently executing tasks
-                // Wait a while for tasks to respond to being cancelled
-                if (!pool.awaitTermination(60, TimeUnit.SECONDS)) {
-                    System.err.println("Pool did not terminate");
-                }
-            }
-        } catch (InterruptedException ie) {
-            // (Re-)Cancel if current thread also interrupted
-            pool.shutdownNow();
-            // Preserve interrupt status
-            Thread.currentThread().interrupt();
+            resource.close();
+        } catch (RuntimeException e) {
+            LOGGER.debug("Unable to close " + resource, e);
         }
     }
 }
@@ -18,30 +18,72 @@ package io.quarkiverse.logging.cloudwatch;
 
 import static io.quarkus.runtime.LaunchMode.DEVELOPMENT;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.logging.Handler;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.jboss.logging.Logger;
 
+import io.netty.channel.ChannelOption;
+import io.quarkiverse.logging.cloudwatch.LoggingCloudWatchConfig.LogFormat;
+import io.quarkiverse.logging.cloudwatch.LoggingCloudWatchConfig.QueueType;
+import io.quarkiverse.logging.cloudwatch.LoggingCloudWatchConfig.RouteConfig;
+import io.quarkiverse.logging.cloudwatch.LoggingCloudWatchConfig.Transport;
 import io.quarkiverse.logging.cloudwatch.auth.CloudWatchCredentialsProvider;
+import io.quarkiverse.logging.cloudwatch.format.CloudWatchLogFormatter;
+import io.quarkiverse.logging.cloudwatch.format.CompactJsonLogFormatter;
+import io.quarkiverse.logging.cloudwatch.format.ElasticCommonSchemaLogFormatter;
+import io.quarkiverse.logging.cloudwatch.format.PlainTextLogFormatter;
+import io.quarkiverse.logging.cloudwatch.format.StackTraceEncoder;
+import io.quarkiverse.logging.cloudwatch.queue.EventQueue;
+import io.quarkiverse.logging.cloudwatch.queue.LinkedEventQueue;
+import io.quarkiverse.logging.cloudwatch.queue.MpscRingBuffer;
+import io.quarkiverse.logging.cloudwatch.queue.SpillLog;
+import io.quarkus.arc.Arc;
+import io.quarkus.arc.InjectableInstance;
 import io.quarkus.runtime.LaunchMode;
 import io.quarkus.runtime.RuntimeValue;
+import io.quarkus.runtime.ShutdownContext;
 import io.quarkus.runtime.annotations.Recorder;
+import software.amazon.awssdk.awscore.client.builder.AwsClientBuilder;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.awscore.retry.AwsRetryStrategy;
 import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.cloudwatchlogs.CloudWatchLogsAsyncClient;
 import software.amazon.awssdk.services.cloudwatchlogs.CloudWatchLogsClient;
-import software.amazon.awssdk.services.cloudwatchlogs.CloudWatchLogsClientBuilder;
+import software.amazon.awssdk.services.cloudwatchlogs.model.AccessDeniedException;
 import software.amazon.awssdk.services.cloudwatchlogs.model.CreateLogStreamRequest;
 import software.amazon.awssdk.services.cloudwatchlogs.model.DescribeLogStreamsRequest;
 import software.amazon.awssdk.services.cloudwatchlogs.model.LogStream;
+import software.amazon.awssdk.services.cloudwatchlogs.model.ResourceAlreadyExistsException;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
 
 @Recorder
 public class LoggingCloudWatchHandlerValueFactory {
 
     private static final Logger LOGGER = Logger.getLogger(LoggingCloudWatchHandlerValueFactory.class);
 
+    private static final int DEFAULT_RING_BUFFER_CAPACITY = 65_536;
+    // The default of the Apache client.
+    private static final int DEFAULT_MAX_CONNECTIONS = 50;
+    private static final String METRICS_OBJECT_NAME = "io.quarkiverse.logging.cloudwatch:type=LoggingCloudWatchHandler";
+
     private final RuntimeValue<LoggingCloudWatchConfig> config;
 
     public LoggingCloudWatchHandlerValueFactory(RuntimeValue<LoggingCloudWatchConfig> config) {
@@ -58,8 +100,11 @@ public class LoggingCloudWatchHandlerValueFactory {
         LOGGER.info("Initializing Quarkus Logging Cloudwatch Extension");
 
         List<String> errors = config.validate();
+        if (config.format() == LogFormat.CUSTOM && !customFormatters().isResolvable()) {
+            errors.add("quarkus.log.cloudwatch.format (custom requires a single CloudWatchLogFormatter bean)");
+        }
         if (!errors.isEmpty()) {
-            String errorMsg = "The Quarkus Logging Cloudwatch extension is unable to start because of missing configuration values: "
+            String errorMsg = "The Quarkus Logging Cloudwatch extension is unable to start because of missing or invalid configuration values: "
                     + String.join(", ", errors);
             if (LaunchMode.current() == DEVELOPMENT) {
                 LOGGER.error(errorMsg);
@@ -70,43 +115,378 @@ public class LoggingCloudWatchHandlerValueFactory {
         }
 
         LOGGER.infof("Logging to log-group: %s and log-stream: %s", config.logGroup().get(), config.logStreamName().get());
-
-        CloudWatchLogsClientBuilder cloudWatchLogsClientBuilder = CloudWatchLogsClient.builder()
-                .credentialsProvider(new CloudWatchCredentialsProvider(config))
-                .region(Region.of(config.region().get()));
-        if (config.apiCallTimeout().isPresent()) {
-            cloudWatchLogsClientBuilder = cloudWatchLogsClientBuilder.overrideConfiguration(
-                    ClientOverrideConfiguration.builder().apiCallTimeout(config.apiCallTimeout().get()).build());
+        if (config.logStreamCount() > 1) {
+            LOGGER.infof("Log events are spread across %d log streams", config.logStreamCount());
         }
-        if (config.endpointOverride().isPresent()) {
-            cloudWatchLogsClientBuilder.endpointOverride(URI.create(config.endpointOverride().get()));
+        if (config.transport() == Transport.VIRTUAL_THREADS && !VirtualThreadLogEventsSender.virtualThreadsAvailable()) {
+            LOGGER.warn("Virtual threads require Java 21 or later, the log events are sent from platform threads instead");
         }
 
-        CloudWatchLogsClient cloudWatchLogsClient = cloudWatchLogsClientBuilder.build();
+        List<String> routeNames = new ArrayList<>(config.routes().keySet());
+        Collections.sort(routeNames);
+        for (String routeName : routeNames) {
+            LOGGER.infof("Routing log events of route %s to log-stream: %s", routeName,
+                    routeLogStream(config, routeName).logStreamName);
+        }
+
+        List<LogStreamTarget> logStreams = logStreams(config, routeNames);
+        LoggingCloudWatchMetrics metrics = new LoggingCloudWatchMetrics();
+        List<DeferredLogEventsSender> deferredSenders = new ArrayList<>();
+        List<LogEventsSender> senders;
+        List<SdkAutoCloseable> resources = new ArrayList<>();
+        if (config.backgroundInitialization()) {
+            senders = new ArrayList<>(logStreams.size());
+            for (int i = 0; i < logStreams.size(); i++) {
+                DeferredLogEventsSender sender = new DeferredLogEventsSender();
+                deferredSenders.add(sender);
+                senders.add(sender);
+            }
+        } else {
+            try {
+                senders = createSenders(config, logStreams, metrics, resources::add);
+            } catch (RuntimeException e) {
+                resources.forEach(SdkAutoCloseable::close);
+                throw e;
+            }
+        }
 
-        String token = createLogStreamIfNeeded(cloudWatchLogsClient, config);
+        int logStreamCount = config.logStreamCount();
+        Optional<Integer> maxQueueSize = config.maxQueueSize()
+                .map(size -> Math.max(1, (size + logStreamCount - 1) / logStreamCount));
+        List<LogStreamPublisher> publishers = new ArrayList<>(logStreamCount);
+        for (int i = 0; i < logStreamCount; i++) {
+            publishers.add(createPublisher(config, senders.get(i), logStreams.get(i).logStreamName, maxQueueSize, metrics));
+        }
+        List<LogRoute> routes = new ArrayList<>(routeNames.size());
+        for (int i = 0; i < routeNames.size(); i++) {
+            RouteConfig route = config.routes().get(routeNames.get(i));
+            LogStreamPublisher publisher = createPublisher(config, senders.get(logStreamCount + i),
+                    logStreams.get(logStreamCount + i).logStreamName, route.maxQueueSize().or(config::maxQueueSize),
+                    metrics);
+            routes.add(new LogRoute(routeNames.get(i), route.categories().orElse(List.of()), route.mdcKey().orElse(null),
+                    route.mdcValue().orElse(null), publisher));
+        }
 
-        LoggingCloudWatchHandler handler = new LoggingCloudWatchHandler(cloudWatchLogsClient, config.logGroup().get(),
-                config.logStreamName().get(), token, config.maxQueueSize(), config.batchSize(), config.batchPeriod(),
-                config.serviceEnvironment(), config.maxMessageLength());
+        AdmissionController admissionController = new AdmissionController(config.loadSheddingEnabled(),
+                config.loadSheddingThreshold(), config.loadSheddingNeverDropLevel());
+        LoggingCloudWatchHandler handler = new LoggingCloudWatchHandler(publishers, routes,
+                config.logStreamDistribution(), admissionController, metrics, createFormatter(config),
+                config.shutdownTimeout(), config.deferredFormatting(),
+                config.coalescingEnabled()
+                        ? new LogCoalescer(config.coalescingWindow(), config.coalescingMaxFingerprints())
+                        : null);
         handler.setLevel(config.level());
+        resources.forEach(handler::closeOnShutdown);
+
+        if (config.backgroundInitialization()) {
+            handler.initializeInBackground(
+                    () -> initializeInBackground(config, logStreams, metrics, deferredSenders, handler));
+        } else {
+            handler.start();
+        }
 
         return new RuntimeValue<>(Optional.of(handler));
     }
 
-    private String createLogStreamIfNeeded(CloudWatchLogsClient cloudWatchLogsClient, LoggingCloudWatchConfig config) {
+    private static CloudWatchLogFormatter createFormatter(LoggingCloudWatchConfig config) {
+        if (config.format() == LogFormat.CUSTOM) {
+            return customFormatters().get();
+        }
+        StackTraceEncoder stackTraceEncoder = new StackTraceEncoder(config.stackTraceMaxLength(),
+                config.stackTraceCollapsedPackages().orElse(List.of()));
+        switch (config.format()) {
+            case COMPACT_JSON:
+                return new CompactJsonLogFormatter(config.serviceEnvironment(), stackTraceEncoder,
+                        config.maxMessageLength());
+            case PLAIN_TEXT:
+                return new PlainTextLogFormatter(stackTraceEncoder, config.maxMessageLength());
+            case ECS:
+            default:
+                return new ElasticCommonSchemaLogFormatter(config.serviceEnvironment(), stackTraceEncoder,
+                        config.maxMessageLength());
+        }
+    }
+
+    /**
+     * The formatter beans of the application, discovered at build time.
+     */
+    private static InjectableInstance<CloudWatchLogFormatter> customFormatters() {
+        return Arc.container().select(CloudWatchLogFormatter.class);
+    }
+
+    /**
+     * Creates the CloudWatch client and the log streams, then starts the handler, which queued the records meanwhile.
+     */
+    private static void initializeInBackground(LoggingCloudWatchConfig config, List<LogStreamTarget> logStreams,
+            LoggingCloudWatchMetrics metrics, List<DeferredLogEventsSender> deferredSenders,
+            LoggingCloudWatchHandler handler) {
+        long start = System.nanoTime();
+        try {
+            List<LogEventsSender> senders = createSenders(config, logStreams, metrics, handler::closeOnShutdown);
+            for (int i = 0; i < senders.size(); i++) {
+                deferredSenders.get(i).ready(senders.get(i));
+            }
+            handler.start();
+            LOGGER.debugf("CloudWatch log handler initialized in the background in %d ms",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (Throwable t) {
+            if (handler.isClosed()) {
+                LOGGER.debug("CloudWatch log handler closed before it was initialized", t);
+            } else {
+                LOGGER.error("Unable to initialize the CloudWatch log handler, log events will not be sent to CloudWatch",
+                        t);
+            }
+            for (DeferredLogEventsSender sender : deferredSenders) {
+                sender.failed(t);
+            }
+            handler.close();
+        }
+    }
+
+    /**
+     * Creates the CloudWatch client, then the log streams if needed and their senders. This blocks on calls to
+     * CloudWatch.
+     *
+     * @param resources receives the client and its credentials provider, to be closed along with the handler
+     */
+    private static List<LogEventsSender> createSenders(LoggingCloudWatchConfig config, List<LogStreamTarget> logStreams,
+            LoggingCloudWatchMetrics metrics, Consumer<SdkAutoCloseable> resources) {
+        CloudWatchCredentialsProvider credentialsProvider = new CloudWatchCredentialsProvider(config);
+        resources.accept(credentialsProvider);
+        CloudWatchLogsClient cloudWatchLogsClient = null;
+        CloudWatchLogsAsyncClient cloudWatchLogsAsyncClient = null;
+        if (config.transport() == Transport.ASYNC) {
+            cloudWatchLogsAsyncClient = configure(CloudWatchLogsAsyncClient.builder(), config, credentialsProvider)
+                    .httpClientBuilder(nettyHttpClientBuilder(config))
+                    .build();
+            resources.accept(cloudWatchLogsAsyncClient);
+        } else {
+            cloudWatchLogsClient = configure(CloudWatchLogsClient.builder(), config, credentialsProvider)
+                    .httpClientBuilder(apacheHttpClientBuilder(config))
+                    .build();
+            resources.accept(cloudWatchLogsClient);
+        }
+
+        List<LogEventsSender> senders = new ArrayList<>(logStreams.size());
+        for (LogStreamTarget logStream : logStreams) {
+            String logGroup = logStream.logGroup;
+            String logStreamName = logStream.logStreamName;
+            if (cloudWatchLogsAsyncClient != null) {
+                CloudWatchLogsAsyncClient client = cloudWatchLogsAsyncClient;
+                createLogStream(request -> client.createLogStream(request).join(), logGroup, logStreamName);
+                senders.add(new AsyncLogEventsSender(client, logGroup, logStreamName, config.maxInFlightBatches()));
+            } else {
+                String token = null;
+                if (config.sequenceTokens() && config.transport() == Transport.SYNC) {
+                    token = createLogStreamIfNeeded(cloudWatchLogsClient, logGroup, logStreamName);
+                } else {
+                    createLogStream(cloudWatchLogsClient::createLogStream, logGroup, logStreamName);
+                }
+                if (config.transport() == Transport.VIRTUAL_THREADS) {
+                    senders.add(new VirtualThreadLogEventsSender(
+                            new SyncLogEventsSender(cloudWatchLogsClient, logGroup, logStreamName, false, null, metrics),
+                            logStreamName, config.maxInFlightBatches()));
+                } else {
+                    senders.add(new SyncLogEventsSender(cloudWatchLogsClient, logGroup, logStreamName,
+                            config.sequenceTokens(), token, metrics));
+                }
+            }
+        }
+        return senders;
+    }
+
+    /**
+     * Exposes the handler metrics as Micrometer meters.
+     */
+    public void bindMicrometerMetrics(RuntimeValue<Optional<Handler>> handler) {
+        if (handler.getValue().isPresent()) {
+            MicrometerMetricsBinder.bind(((LoggingCloudWatchHandler) handler.getValue().get()).metrics());
+        }
+    }
+
+    /**
+     * Exposes the handler metrics as a JMX MBean, when Micrometer is not available.
+     */
+    public void registerMetricsMBean(RuntimeValue<Optional<Handler>> handler, ShutdownContext shutdownContext) {
+        if (handler.getValue().isEmpty()) {
+            return;
+        }
+        LoggingCloudWatchMetrics metrics = ((LoggingCloudWatchHandler) handler.getValue().get()).metrics();
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(METRICS_OBJECT_NAME);
+            mBeanServer.registerMBean(metrics, objectName);
+            shutdownContext.addShutdownTask(() -> {
+                try {
+                    mBeanServer.unregisterMBean(objectName);
+                } catch (JMException e) {
+                    LOGGER.debug("Unable to unregister the CloudWatch log handler metrics MBean", e);
+                }
+            });
+        } catch (JMException | RuntimeException e) {
+            LOGGER.warn("Unable to register the CloudWatch log handler metrics MBean", e);
+        }
+    }
+
+    private static <B extends AwsClientBuilder<B, ?>> B configure(B builder, LoggingCloudWatchConfig config,
+            CloudWatchCredentialsProvider credentialsProvider) {
+        builder.credentialsProvider(credentialsProvider)
+                .region(Region.of(config.region().get()));
+        // The publishers retry the failed PutLogEvents calls themselves, see RetryEngine.
+        ClientOverrideConfiguration.Builder overrideConfiguration = ClientOverrideConfiguration.builder()
+                .retryStrategy(AwsRetryStrategy.doNotRetry());
+        config.apiCallTimeout().ifPresent(overrideConfiguration::apiCallTimeout);
+        builder.overrideConfiguration(overrideConfiguration.build());
+        if (config.endpointOverride().isPresent()) {
+            builder.endpointOverride(URI.create(config.endpointOverride().get()));
+        }
+        return builder;
+    }
+
+    private static ApacheHttpClient.Builder apacheHttpClientBuilder(LoggingCloudWatchConfig config) {
+        ApacheHttpClient.Builder builder = ApacheHttpClient.builder()
+                .tcpKeepAlive(config.httpTcpKeepAlive());
+        if (config.httpMaxConnections().isPresent()) {
+            builder.maxConnections(config.httpMaxConnections().get());
+        } else if (config.transport() == Transport.VIRTUAL_THREADS) {
+            builder.maxConnections(
+                    Math.max(DEFAULT_MAX_CONNECTIONS, config.maxInFlightBatches() * totalLogStreamCount(config)));
+        }
+        config.httpConnectionMaxIdleTime().ifPresent(builder::connectionMaxIdleTime);
+        config.httpConnectionTimeToLive().ifPresent(builder::connectionTimeToLive);
+        return builder;
+    }
+
+    private static NettyNioAsyncHttpClient.Builder nettyHttpClientBuilder(LoggingCloudWatchConfig config) {
+        NettyNioAsyncHttpClient.Builder builder = NettyNioAsyncHttpClient.builder()
+                .maxConcurrency(config.httpMaxConnections().orElse(config.maxInFlightBatches() * totalLogStreamCount(config)))
+                .tcpKeepAlive(config.httpTcpKeepAlive())
+                .putChannelOption(ChannelOption.TCP_NODELAY, config.httpTcpNoDelay());
+        config.httpConnectionMaxIdleTime().ifPresent(builder::connectionMaxIdleTime);
+        config.httpConnectionTimeToLive().ifPresent(builder::connectionTimeToLive);
+        return builder;
+    }
+
+    private static LogStreamPublisher createPublisher(LoggingCloudWatchConfig config, LogEventsSender sender,
+            String logStreamName, Optional<Integer> maxQueueSize, LoggingCloudWatchMetrics metrics) {
+        return new LogStreamPublisher(sender, logStreamName, createEventQueue(config.queueType(), maxQueueSize),
+                createSpillLog(config, logStreamName), metrics,
+                new RetryEngine(config.retryMaxRetries(), config.retryInitialBackoff(), config.retryMaxBackoff(),
+                        config.retryBudget(), config.batchSize()),
+                config.batchPeriod(), config.drainThreshold().orElse(config.batchSize()));
+    }
+
+    private static EventQueue<LogEvent> createEventQueue(QueueType queueType, Optional<Integer> maxQueueSize) {
+        switch (queueType) {
+            case RING_BUFFER:
+                return new MpscRingBuffer<>(maxQueueSize.orElse(DEFAULT_RING_BUFFER_CAPACITY));
+            case LINKED:
+            default:
+                return new LinkedEventQueue<>(maxQueueSize);
+        }
+    }
+
+    private static SpillLog createSpillLog(LoggingCloudWatchConfig config, String logStreamName) {
+        if (config.spillDirectory().isEmpty()) {
+            return null;
+        }
+        Path directory = config.spillDirectory().get().resolve(logStreamName.replaceAll("[^A-Za-z0-9._-]", "_"));
+        try {
+            return new SpillLog(directory, config.spillMaxSize().asLongValue(),
+                    (int) config.spillSegmentSize().asLongValue());
+        } catch (IOException | RuntimeException e) {
+            LOGGER.errorf(e, "Unable to open the spill directory %s, log events of log-stream %s will not be spilled to disk",
+                    directory, logStreamName);
+            return null;
+        }
+    }
+
+    /**
+     * The log streams the events are spread across, the log stream name suffixed with the index of the log stream when
+     * there are several, followed by the log streams of the routes.
+     */
+    private static List<LogStreamTarget> logStreams(LoggingCloudWatchConfig config, List<String> routeNames) {
+        String logGroup = config.logGroup().get();
+        String logStreamName = config.logStreamName().get();
+        List<LogStreamTarget> logStreams = new ArrayList<>(config.logStreamCount() + routeNames.size());
+        if (config.logStreamCount() == 1) {
+            logStreams.add(new LogStreamTarget(logGroup, logStreamName));
+        } else {
+            for (int i = 0; i < config.logStreamCount(); i++) {
+                logStreams.add(new LogStreamTarget(logGroup, logStreamName + "-" + i));
+            }
+        }
+        for (String routeName : routeNames) {
+            logStreams.add(routeLogStream(config, routeName));
+        }
+        return logStreams;
+    }
+
+    private static LogStreamTarget routeLogStream(LoggingCloudWatchConfig config, String routeName) {
+        RouteConfig route = config.routes().get(routeName);
+        return new LogStreamTarget(route.logGroup().orElse(config.logGroup().get()),
+                route.logStreamName().orElse(config.logStreamName().get() + "-" + routeName));
+    }
+
+    private static int totalLogStreamCount(LoggingCloudWatchConfig config) {
+        return config.logStreamCount() + config.routes().size();
+    }
+
+    /**
+     * Creates the log stream, unless it already exists. A single call, instead of looking the log stream up first.
+     * <p>
+     * Without the permission to create log streams, the log stream is assumed to be created beforehand, as it had to be
+     * when the log stream was looked up first.
+     */
+    static void createLogStream(Consumer<CreateLogStreamRequest> createLogStream, String logGroup,
+            String logStreamName) {
+        CreateLogStreamRequest createLogStreamRequest = CreateLogStreamRequest.builder()
+                .logGroupName(logGroup)
+                .logStreamName(logStreamName)
+                .build();
+        try {
+            createLogStream.accept(createLogStreamRequest);
+        } catch (RuntimeException e) {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof ResourceAlreadyExistsException) {
+                LOGGER.debugf("Log stream %s already exists", logStreamName);
+            } else if (isAccessDenied(cause)) {
+                LOGGER.debugf("Not allowed to create log stream %s, assuming it exists", logStreamName);
+            } else {
+                throw e;
+            }
+        }
+    }
+
+    private static boolean isAccessDenied(Throwable t) {
+        if (t instanceof AccessDeniedException) {
+            return true;
+        }
+        if (!(t instanceof AwsServiceException)) {
+            return false;
+        }
+        AwsServiceException e = (AwsServiceException) t;
+        return e.statusCode() == 403
+                || (e.awsErrorDetails() != null && "AccessDeniedException".equals(e.awsErrorDetails().errorCode()));
+    }
+
+    /**
+     * Creates the log stream if needed and returns its current sequence token.
+     */
+    private static String createLogStreamIfNeeded(CloudWatchLogsClient cloudWatchLogsClient, String logGroup,
+            String logStreamName) {
         String token = null;
 
         DescribeLogStreamsRequest describeLogStreamsRequest = DescribeLogStreamsRequest.builder()
-                .logGroupName(config.logGroup().get())
+                .logGroupName(logGroup)
                 // We need to filter down, as CW returns by default only 50 streams and ours may not be in it.
-                .logStreamNamePrefix(config.logStreamName().get())
+                .logStreamNamePrefix(logStreamName)
                 .build();
         List<LogStream> logStreams = cloudWatchLogsClient.describeLogStreams(describeLogStreamsRequest).logStreams();
 
         boolean found = false;
         for (LogStream ls : logStreams) {
-            if (ls.logStreamName().equals(config.logStreamName().get())) {
+            if (ls.logStreamName().equals(logStreamName)) {
                 found = true;
                 token = ls.uploadSequenceToken();
             }
@@ -114,12 +494,22 @@ public class LoggingCloudWatchHandlerValueFactory {
 
         if (!found) {
             CreateLogStreamRequest createLogStreamRequest = CreateLogStreamRequest.builder()
-                    .logGroupName(config.logGroup().get())
-                    .logStreamName(config.logStreamName().get())
+                    .logGroupName(logGroup)
+                    .logStreamName(logStreamName)
                     .build();
             cloudWatchLogsClient.createLogStream(createLogStreamRequest);
         }
         return token;
     }
 
+    private static final class LogStreamTarget {
+
+        final String logGroup;
+        final String logStreamName;
+
+        LogStreamTarget(String logGroup, String logStreamName) {
+            this.logGroup = logGroup;
+            this.logStreamName = logStreamName;
+        }
+    }
 }
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Counts what the CloudWatch log handler does, so that the batch size, the batch period and the queue size can be tuned
+ * under real load. The counters are only read by the Micrometer meters or the JMX MBean registered at startup.
+ */
+class LoggingCloudWatchMetrics implements LoggingCloudWatchMetricsMXBean {
+
+    private final List<LogStreamPublisher> publishers = new CopyOnWriteArrayList<>();
+    private volatile AdmissionController admissionController = AdmissionController.ADMIT_ALL;
+    private volatile LogCoalescer coalescer;
+
+    private final LongAdder eventsSent = new LongAdder();
+    private final LongAdder batchesSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder batchesFailed = new LongAdder();
+    private final LongAdder eventsLost = new LongAdder();
+    private final LongAdder putLogEventsRetries = new LongAdder();
+    private final LongAdder putLogEventsCalls = new LongAdder();
+    private final LongAdder putLogEventsNanos = new LongAdder();
+
+    void registerPublisher(LogStreamPublisher publisher) {
+        publishers.add(publisher);
+    }
+
+    void registerAdmissionController(AdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
+
+    void registerCoalescer(LogCoalescer coalescer) {
+        this.coalescer = coalescer;
+    }
+
+    void batchSent(int events, int bytes, long durationNanos) {
+        eventsSent.add(events);
+        batchesSent.increment();
+        bytesSent.add(bytes);
+        putLogEventsCompleted(durationNanos);
+    }
+
+    void batchFailed(int lostEvents, long durationNanos) {
+        batchesFailed.increment();
+        eventsLost.add(lostEvents);
+        putLogEventsCompleted(durationNanos);
+    }
+
+    void eventsLost(int lostEvents) {
+        eventsLost.add(lostEvents);
+    }
+
+    void batchRetried(long durationNanos) {
+        putLogEventsRetries.increment();
+        putLogEventsCompleted(durationNanos);
+    }
+
+    void putLogEventsRetried() {
+        putLogEventsRetries.increment();
+    }
+
+    private void putLogEventsCompleted(long durationNanos) {
+        putLogEventsCalls.increment();
+        putLogEventsNanos.add(durationNanos);
+    }
+
+    List<LogStreamPublisher> publishers() {
+        return publishers;
+    }
+
+    AdmissionController admissionController() {
+        return admissionController;
+    }
+
+    @Override
+    public int getQueueSize() {
+        int size = 0;
+        for (LogStreamPublisher publisher : publishers) {
+            size += publisher.queueSize();
+        }
+        return size;
+    }
+
+    @Override
+    public int getSpilledQueueSize() {
+        int size = 0;
+        for (LogStreamPublisher publisher : publishers) {
+            size += publisher.spilledQueueSize();
+        }
+        return size;
+    }
+
+    @Override
+    public long getEventsSent() {
+        return eventsSent.sum();
+    }
+
+    @Override
+    public long getBatchesSent() {
+        return batchesSent.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public Map<String, Long> getEventsDropped() {
+        Map<String, Long> eventsDropped = new LinkedHashMap<>();
+        for (Map.Entry<Level, Long> entry : admissionController.droppedRecords().entrySet()) {
+            eventsDropped.put(entry.getKey().getName(), entry.getValue());
+        }
+        return eventsDropped;
+    }
+
+    @Override
+    public long getEventsCoalesced() {
+        LogCoalescer coalescer = this.coalescer;
+        return coalescer == null ? 0 : coalescer.coalescedRecords();
+    }
+
+    @Override
+    public long getBatchesFailed() {
+        return batchesFailed.sum();
+    }
+
+    @Override
+    public long getEventsLost() {
+        return eventsLost.sum();
+    }
+
+    @Override
+    public long getPutLogEventsRetries() {
+        return putLogEventsRetries.sum();
+    }
+
+    @Override
+    public long getPutLogEventsCalls() {
+        return putLogEventsCalls.sum();
+    }
+
+    @Override
+    public long getPutLogEventsTotalTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(putLogEventsNanos.sum());
+    }
+
+    double putLogEventsTotalTimeNanos() {
+        return putLogEventsNanos.sum();
+    }
+}
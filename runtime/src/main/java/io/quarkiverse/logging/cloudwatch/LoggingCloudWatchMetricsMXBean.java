@@ -0,0 +1,71 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch;
+
+import java.util.Map;
+
+/**
+ * The metrics of the CloudWatch log handler, exposed over JMX when Micrometer is not available.
+ */
+public interface LoggingCloudWatchMetricsMXBean {
+
+    /**
+     * Number of log events waiting in the queues of all log streams.
+     */
+    int getQueueSize();
+
+    /**
+     * Number of log events spilled to disk and not sent yet.
+     */
+    int getSpilledQueueSize();
+
+    long getEventsSent();
+
+    long getBatchesSent();
+
+    long getBytesSent();
+
+    /**
+     * Number of log events that were not queued, either shed or rejected by a full queue, per level.
+     */
+    Map<String, Long> getEventsDropped();
+
+    /**
+     * Number of repeated log events that were not queued, only counted in the summary of their repetitions.
+     */
+    long getEventsCoalesced();
+
+    /**
+     * Number of batches that could not be sent and were not retried anymore, whether they were requeued or not.
+     */
+    long getBatchesFailed();
+
+    /**
+     * Number of log events that are lost: from failed batches that could not be requeued, from batches whose retry
+     * was cancelled by the shutdown, left unsent at shutdown without a spill log, or too large to be sent.
+     */
+    long getEventsLost();
+
+    long getPutLogEventsRetries();
+
+    long getPutLogEventsCalls();
+
+    /**
+     * Total time spent in PutLogEvents calls, retries included, in milliseconds.
+     */
+    long getPutLogEventsTotalTimeMillis();
+}
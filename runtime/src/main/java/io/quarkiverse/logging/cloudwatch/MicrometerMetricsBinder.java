@@ -0,0 +1,98 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Exposes the handler metrics as Micrometer meters. Only loaded when Micrometer is available.
+ */
+class MicrometerMetricsBinder {
+
+    private static final String PREFIX = "cloudwatch.logs.";
+    private static final String LOG_STREAM_TAG = "log.stream";
+
+    /**
+     * The levels the dropped events are reported for, as the meters have to be registered up front.
+     */
+    private static final Level[] LEVELS = { org.jboss.logmanager.Level.TRACE, org.jboss.logmanager.Level.DEBUG,
+            org.jboss.logmanager.Level.INFO, org.jboss.logmanager.Level.WARN, org.jboss.logmanager.Level.ERROR,
+            org.jboss.logmanager.Level.FATAL };
+
+    private MicrometerMetricsBinder() {
+    }
+
+    /**
+     * Binds the meters to the global registry, which forwards them to the registries configured by the application.
+     */
+    static void bind(LoggingCloudWatchMetrics metrics) {
+        bind(metrics, Metrics.globalRegistry);
+    }
+
+    static void bind(LoggingCloudWatchMetrics metrics, MeterRegistry registry) {
+        for (LogStreamPublisher publisher : metrics.publishers()) {
+            Gauge.builder(PREFIX + "queue.size", publisher, LogStreamPublisher::queueSize)
+                    .description("Log events waiting in the queue")
+                    .tag(LOG_STREAM_TAG, publisher.logStreamName())
+                    .register(registry);
+            Gauge.builder(PREFIX + "spill.size", publisher, LogStreamPublisher::spilledQueueSize)
+                    .description("Log events spilled to disk and not sent yet")
+                    .tag(LOG_STREAM_TAG, publisher.logStreamName())
+                    .register(registry);
+        }
+        for (Level level : LEVELS) {
+            FunctionCounter.builder(PREFIX + "events.dropped", metrics,
+                    m -> m.admissionController().droppedRecords().getOrDefault(level, 0L))
+                    .description("Log events that were not queued, either shed or rejected by a full queue")
+                    .tag("level", level.getName())
+                    .register(registry);
+        }
+        FunctionCounter.builder(PREFIX + "events.coalesced", metrics, LoggingCloudWatchMetrics::getEventsCoalesced)
+                .description("Repeated log events only counted in the summary of their repetitions")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "events.sent", metrics, LoggingCloudWatchMetrics::getEventsSent)
+                .description("Log events sent to CloudWatch")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "batches.sent", metrics, LoggingCloudWatchMetrics::getBatchesSent)
+                .description("Batches of log events sent to CloudWatch")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "bytes.sent", metrics, LoggingCloudWatchMetrics::getBytesSent)
+                .description("Size of the log events sent to CloudWatch, as computed by CloudWatch")
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "batches.failed", metrics, LoggingCloudWatchMetrics::getBatchesFailed)
+                .description("Batches of log events that could not be sent and were not retried anymore")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "events.lost", metrics, LoggingCloudWatchMetrics::getEventsLost)
+                .description("Log events of failed batches that could not be requeued")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "put.retries", metrics, LoggingCloudWatchMetrics::getPutLogEventsRetries)
+                .description("PutLogEvents calls retried")
+                .register(registry);
+        FunctionTimer.builder(PREFIX + "put", metrics, LoggingCloudWatchMetrics::getPutLogEventsCalls,
+                LoggingCloudWatchMetrics::putLogEventsTotalTimeNanos, TimeUnit.NANOSECONDS)
+                .description("PutLogEvents calls, retries included")
+                .register(registry);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+
+/**
+ * Decides whether and when a failed batch is sent again, and slows the publisher of a log stream down while
+ * CloudWatch throttles it.
+ * <p>
+ * A batch is retried after a jittered exponential backoff, at most {@code maxRetries} times. Each class of errors has
+ * its own budget of retries, so that a long outage does not turn into a retry storm: every retry takes one from the
+ * budget of its error class and every batch sent gives one back to each class. Once the budget is exhausted, failed
+ * batches are requeued right away instead.
+ * <p>
+ * On throttling, the batch size is halved and the pause between two PutLogEvents calls is doubled. Each batch sent
+ * then grows the batch size back by a tenth of the configured size and halves the pause.
+ */
+class RetryEngine {
+
+    enum ErrorClass {
+        /**
+         * CloudWatch rejected the call because of a quota.
+         */
+        THROTTLING,
+        /**
+         * CloudWatch failed to handle the call, e.g. {@code ServiceUnavailableException}.
+         */
+        SERVER_ERROR,
+        /**
+         * The call did not reach CloudWatch or its response was not received in time.
+         */
+        NETWORK,
+        /**
+         * Sending the same batch again would fail the same way, e.g. {@code InvalidParameterException}.
+         */
+        NOT_RETRYABLE
+    }
+
+    private static final long MIN_PAUSE_MILLIS = 50;
+
+    private final int maxRetries;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final int budget;
+    private final int maxBatchSize;
+    private final Map<ErrorClass, AtomicInteger> budgets = new EnumMap<>(ErrorClass.class);
+
+    private volatile int batchSize;
+    private volatile long pauseMillis;
+
+    RetryEngine(int maxRetries, Duration initialBackoff, Duration maxBackoff, int budget, int maxBatchSize) {
+        this.maxRetries = maxRetries;
+        this.initialBackoffMillis = Math.max(1, initialBackoff.toMillis());
+        this.maxBackoffMillis = Math.max(initialBackoffMillis, maxBackoff.toMillis());
+        this.budget = budget;
+        this.maxBatchSize = maxBatchSize;
+        this.batchSize = maxBatchSize;
+        for (ErrorClass errorClass : ErrorClass.values()) {
+            if (errorClass != ErrorClass.NOT_RETRYABLE) {
+                budgets.put(errorClass, new AtomicInteger(budget));
+            }
+        }
+    }
+
+    /**
+     * An engine that never retries, failed batches are requeued right away.
+     */
+    static RetryEngine noRetry(int batchSize) {
+        return new RetryEngine(0, Duration.ZERO, Duration.ZERO, 0, batchSize);
+    }
+
+    static ErrorClass classify(Throwable failure) {
+        Throwable cause = failure;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof AwsServiceException) {
+            AwsServiceException serviceException = (AwsServiceException) cause;
+            if (serviceException.isThrottlingException()) {
+                return ErrorClass.THROTTLING;
+            }
+            return serviceException.statusCode() >= 500 ? ErrorClass.SERVER_ERROR : ErrorClass.NOT_RETRYABLE;
+        }
+        // Timeouts, connection failures and credentials that could not be loaded.
+        if (cause instanceof SdkClientException || cause instanceof IOException) {
+            return ErrorClass.NETWORK;
+        }
+        return ErrorClass.NOT_RETRYABLE;
+    }
+
+    /**
+     * Records the failure of a batch that was already retried the given number of times.
+     *
+     * @return the delay before the batch is sent again, or {@code -1} if it must not be retried
+     */
+    long onFailure(ErrorClass errorClass, int retries) {
+        if (errorClass == ErrorClass.THROTTLING) {
+            batchSize = Math.max(1, batchSize / 2);
+            pauseMillis = Math.min(maxBackoffMillis, Math.max(MIN_PAUSE_MILLIS, pauseMillis * 2));
+        }
+        if (errorClass == ErrorClass.NOT_RETRYABLE || retries >= maxRetries || !tryAcquire(budgets.get(errorClass))) {
+            return -1;
+        }
+        // Full jitter, so that the publishers of several streams or instances don't retry in lockstep.
+        long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(retries, 30));
+        return Math.max(pauseMillis, ThreadLocalRandom.current().nextLong(backoff + 1));
+    }
+
+    void onSuccess() {
+        for (AtomicInteger errorClassBudget : budgets.values()) {
+            errorClassBudget.getAndUpdate(value -> Math.min(budget, value + 1));
+        }
+        if (batchSize < maxBatchSize) {
+            batchSize = Math.min(maxBatchSize, batchSize + Math.max(1, maxBatchSize / 10));
+        }
+        long pause = pauseMillis;
+        if (pause > 0) {
+            pauseMillis = pause / 2 < MIN_PAUSE_MILLIS ? 0 : pause / 2;
+        }
+    }
+
+    /**
+     * The maximum number of events of the next batch.
+     */
+    int batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * How long to wait before the next PutLogEvents call.
+     */
+    long pauseMillis() {
+        return pauseMillis;
+    }
+
+    private static boolean tryAcquire(AtomicInteger errorClassBudget) {
+        return errorClassBudget.getAndUpdate(value -> value > 0 ? value - 1 : 0) > 0;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import org.jboss.logging.Logger;
+
+import software.amazon.awssdk.services.cloudwatchlogs.CloudWatchLogsClient;
+import software.amazon.awssdk.services.cloudwatchlogs.model.InputLogEvent;
+import software.amazon.awssdk.services.cloudwatchlogs.model.InvalidSequenceTokenException;
+import software.amazon.awssdk.services.cloudwatchlogs.model.PutLogEventsRequest;
+
+/**
+ * Sends the batches with the blocking CloudWatch client, one at a time, from the publisher thread.
+ * <p>
+ * Without sequence tokens, each batch is sent with a single call. With them, the token returned by a call is passed
+ * along with the next one and a call rejected because of an outdated token is sent again with the expected token.
+ */
+class SyncLogEventsSender implements LogEventsSender {
+
+    private static final Logger LOGGER = Logger.getLogger(SyncLogEventsSender.class);
+    private static final int BATCH_MAX_ATTEMPTS = 10;
+
+    private final CloudWatchLogsClient cloudWatchLogsClient;
+    private final String logGroupName;
+    private final String logStreamName;
+    private final LoggingCloudWatchMetrics metrics;
+    private final boolean sequenceTokens;
+    private String sequenceToken;
+
+    SyncLogEventsSender(CloudWatchLogsClient cloudWatchLogsClient, String logGroup, String logStreamName, String token) {
+        this(cloudWatchLogsClient, logGroup, logStreamName, true, token, new LoggingCloudWatchMetrics());
+    }
+
+    SyncLogEventsSender(CloudWatchLogsClient cloudWatchLogsClient, String logGroup, String logStreamName,
+            boolean sequenceTokens, String token, LoggingCloudWatchMetrics metrics) {
+        this.cloudWatchLogsClient = cloudWatchLogsClient;
+        this.logGroupName = logGroup;
+        this.logStreamName = logStreamName;
+        this.sequenceTokens = sequenceTokens;
+        this.sequenceToken = token;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public CompletionStage<Void> send(List<InputLogEvent> events) {
+        if (!sequenceTokens) {
+            try {
+                cloudWatchLogsClient.putLogEvents(PutLogEventsRequest.builder()
+                        .logGroupName(logGroupName)
+                        .logStreamName(logStreamName)
+                        .logEvents(events)
+                        .build());
+                return CompletableFuture.completedFuture(null);
+            } catch (Throwable t) {
+                return CompletableFuture.failedFuture(t);
+            }
+        }
+        try {
+            // The sequence token needed for this request is set below.
+            PutLogEventsRequest request = PutLogEventsRequest.builder()
+                    .logGroupName(logGroupName)
+                    .logStreamName(logStreamName)
+                    .logEvents(events)
+                    .build();
+
+            /*
+             * The current sequence token may not be valid if it was used by another application or pod.
+             * If that happens, we'll retry using the token from the InvalidSequenceTokenException.
+             */
+            for (int i = 1; i <= BATCH_MAX_ATTEMPTS; i++) {
+                if (i > 1) {
+                    metrics.putLogEventsRetried();
+                }
+
+                request = request.toBuilder()
+                        .sequenceToken(sequenceToken)
+                        .build();
+
+                try {
+                    /*
+                     * It's time to put the log events into CloudWatch.
+                     * If that works, we'll use the sequence token from the response for the next put call.
+                     */
+                    sequenceToken = cloudWatchLogsClient.putLogEvents(request).nextSequenceToken();
+                    // The sequence token was accepted, we don't need to retry.
+                    return CompletableFuture.completedFuture(null);
+                } catch (InvalidSequenceTokenException e) {
+                    LOGGER.debugf("PutLogEvents call failed because of an invalid sequence token", e);
+
+                    // We'll use the sequence token from the exception for the next put call.
+                    sequenceToken = e.expectedSequenceToken();
+
+                    // If the last attempt failed, the log events from the current batch are lost.
+                    if (i == BATCH_MAX_ATTEMPTS) {
+                        return CompletableFuture.failedFuture(
+                                new IllegalStateException("Too many retries for a PutLogEvents call", e));
+                    }
+                }
+            }
+            return CompletableFuture.completedFuture(null);
+        } catch (Throwable t) {
+            return CompletableFuture.failedFuture(t);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch;
+
+import java.util.Arrays;
+
+/**
+ * Orders the events of a batch by timestamp, as PutLogEvents requires.
+ * <p>
+ * The events of a producer thread are queued in the order they were logged, so their timestamps rarely go back. The
+ * events are split into one run per producer as they are added, a new run being started whenever the timestamps of a
+ * producer go back, and the runs are merged through a heap. The order costs O(n log k) for k runs, instead of a full
+ * sort, and nothing at all when the events were added in order. Events with the same timestamp keep the order they
+ * were added in.
+ */
+final class TimestampMerger {
+
+    private static final int NO_RUN = -1;
+    private static final int NO_EVENT = -1;
+
+    private long[] timestamps;
+    // The next event of the same run, for each event.
+    private int[] nextInRun;
+    private int size;
+    private boolean ordered = true;
+
+    private int[] runHeads = new int[8];
+    private int[] runTails = new int[8];
+    private int runCount;
+
+    // The current run of each producer, in an open addressing table.
+    private long[] producers = new long[16];
+    private int[] producerRuns = newProducerRuns(16);
+    private int producerCount;
+
+    TimestampMerger(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        this.timestamps = new long[capacity];
+        this.nextInRun = new int[capacity];
+    }
+
+    void add(long timestamp, long producer) {
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            nextInRun = Arrays.copyOf(nextInRun, size * 2);
+        }
+        int index = size++;
+        timestamps[index] = timestamp;
+        nextInRun[index] = NO_EVENT;
+        if (index > 0 && timestamp < timestamps[index - 1]) {
+            ordered = false;
+        }
+
+        int slot = slotOf(producer);
+        int run = producerRuns[slot];
+        if (run != NO_RUN && timestamps[runTails[run]] <= timestamp) {
+            nextInRun[runTails[run]] = index;
+            runTails[run] = index;
+            return;
+        }
+        if (run == NO_RUN) {
+            producers[slot] = producer;
+            producerCount++;
+        }
+        producerRuns[slot] = newRun(index);
+        if (producerCount * 2 > producers.length) {
+            resizeProducers();
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Whether the events were added in timestamp order already.
+     */
+    boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * @return the indexes of the events, in the order they were added, ordered by timestamp
+     */
+    int[] order() {
+        int[] order = new int[size];
+        if (ordered) {
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            return order;
+        }
+        // A min-heap of the next event of each run.
+        int[] heap = Arrays.copyOf(runHeads, runCount);
+        int heapSize = runCount;
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(heap, heapSize, i);
+        }
+        for (int i = 0; i < size; i++) {
+            int event = heap[0];
+            order[i] = event;
+            int next = nextInRun[event];
+            if (next != NO_EVENT) {
+                heap[0] = next;
+            } else {
+                heap[0] = heap[--heapSize];
+            }
+            siftDown(heap, heapSize, 0);
+        }
+        return order;
+    }
+
+    private int newRun(int index) {
+        if (runCount == runTails.length) {
+            runHeads = Arrays.copyOf(runHeads, runCount * 2);
+            runTails = Arrays.copyOf(runTails, runCount * 2);
+        }
+        runHeads[runCount] = index;
+        runTails[runCount] = index;
+        return runCount++;
+    }
+
+    private void siftDown(int[] heap, int heapSize, int position) {
+        int event = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && precedes(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!precedes(heap[child], event)) {
+                break;
+            }
+            heap[position] = heap[child];
+            position = child;
+        }
+        heap[position] = event;
+    }
+
+    private boolean precedes(int event, int other) {
+        return timestamps[event] < timestamps[other] || (timestamps[event] == timestamps[other] && event < other);
+    }
+
+    private int slotOf(long producer) {
+        int mask = producers.length - 1;
+        int slot = mix(producer) & mask;
+        while (producerRuns[slot] != NO_RUN && producers[slot] != producer) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resizeProducers() {
+        long[] oldProducers = producers;
+        int[] oldRuns = producerRuns;
+        producers = new long[oldProducers.length * 2];
+        producerRuns = newProducerRuns(oldProducers.length * 2);
+        for (int i = 0; i < oldProducers.length; i++) {
+            if (oldRuns[i] != NO_RUN) {
+                int slot = slotOf(oldProducers[i]);
+                producers[slot] = oldProducers[i];
+                producerRuns[slot] = oldRuns[i];
+            }
+        }
+    }
+
+    private static int[] newProducerRuns(int capacity) {
+        int[] runs = new int[capacity];
+        Arrays.fill(runs, NO_RUN);
+        return runs;
+    }
+
+    private static int mix(long producer) {
+        int hash = Long.hashCode(producer) * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.logging.Logger;
+
+import software.amazon.awssdk.services.cloudwatchlogs.model.InputLogEvent;
+
+/**
+ * Sends each batch with the blocking CloudWatch client from its own virtual thread. The publisher thread hands a batch
+ * over and moves on to the next one without waiting for the response, up to a maximum number of batches being sent at
+ * the same time.
+ * <p>
+ * Virtual threads are only available from Java 21 on, the batches are sent from platform threads on older versions.
+ * As with the non-blocking client, concurrent requests are sent without sequence tokens.
+ */
+class VirtualThreadLogEventsSender implements LogEventsSender {
+
+    private static final Logger LOGGER = Logger.getLogger(VirtualThreadLogEventsSender.class);
+
+    private final LogEventsSender sender;
+    private final String logStreamName;
+    private final int maxInFlightBatches;
+    private final Semaphore inFlightBatches;
+    private final ExecutorService executor;
+
+    /**
+     * @param sender the sender of a single batch, called from several threads at the same time
+     */
+    VirtualThreadLogEventsSender(LogEventsSender sender, String logStreamName, int maxInFlightBatches) {
+        this(sender, logStreamName, maxInFlightBatches, newThreadPerTaskExecutor(logStreamName));
+    }
+
+    VirtualThreadLogEventsSender(LogEventsSender sender, String logStreamName, int maxInFlightBatches,
+            ExecutorService executor) {
+        this.sender = sender;
+        this.logStreamName = logStreamName;
+        this.maxInFlightBatches = maxInFlightBatches;
+        this.inFlightBatches = new Semaphore(maxInFlightBatches);
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletionStage<Void> send(List<InputLogEvent> events) {
+        try {
+            // When too many batches are being sent, the publisher waits here instead of piling up requests.
+            inFlightBatches.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    sender.send(events).whenComplete((ignored, failure) -> {
+                        inFlightBatches.release();
+                        if (failure != null) {
+                            result.completeExceptionally(failure);
+                        } else {
+                            result.complete(null);
+                        }
+                    });
+                } catch (Throwable t) {
+                    inFlightBatches.release();
+                    result.completeExceptionally(t);
+                }
+            });
+        } catch (Throwable t) {
+            inFlightBatches.release();
+            result.completeExceptionally(t);
+        }
+        return result;
+    }
+
+    @Override
+    public void close(Duration timeout) {
+        try {
+            if (inFlightBatches.tryAcquire(maxInFlightBatches, timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                inFlightBatches.release(maxInFlightBatches);
+            } else {
+                LOGGER.warnf("Batches of log-stream %s were still being sent after %s", logStreamName, timeout);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Whether virtual threads are available on the running JVM.
+     */
+    static boolean virtualThreadsAvailable() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static ExecutorService newThreadPerTaskExecutor(String logStreamName) {
+        // Looked up reflectively, the extension is built for Java 17.
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threadCount = new AtomicInteger();
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "cloudwatch-logs-sender-" + logStreamName + "-"
+                        + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -20,18 +20,37 @@ import io.quarkiverse.logging.cloudwatch.LoggingCloudWatchConfig;
 import software.amazon.awssdk.auth.credentials.AwsCredentials;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
 
-public class CloudWatchCredentialsProvider implements AwsCredentialsProvider {
+/**
+ * Provides either the access key of the configuration, or the credentials of the default credentials provider chain,
+ * which the SDK refreshes in the background before they expire.
+ */
+public class CloudWatchCredentialsProvider implements AwsCredentialsProvider, SdkAutoCloseable {
 
-    private final LoggingCloudWatchConfig config;
+    private final AwsCredentialsProvider delegate;
 
     public CloudWatchCredentialsProvider(LoggingCloudWatchConfig config) {
-        this.config = config;
+        if (config.defaultCredentialsProviderEnabled()) {
+            this.delegate = DefaultCredentialsProvider.builder().asyncCredentialUpdateEnabled(true).build();
+        } else {
+            this.delegate = StaticCredentialsProvider.create(new CloudWatchCredentials(config));
+        }
     }
 
     @Override
     public AwsCredentials resolveCredentials() {
-        return config.defaultCredentialsProviderEnabled() ? DefaultCredentialsProvider.create().resolveCredentials()
-                : new CloudWatchCredentials(config);
+        return delegate.resolveCredentials();
+    }
+
+    /**
+     * Stops refreshing the credentials of the default provider chain in the background.
+     */
+    @Override
+    public void close() {
+        if (delegate instanceof SdkAutoCloseable) {
+            ((SdkAutoCloseable) delegate).close();
+        }
     }
 }
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch.format;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.logmanager.ExtFormatter;
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.MDC;
+
+import co.elastic.logging.JsonUtils;
+
+/**
+ * The formatters of the extension.
+ * <p>
+ * A single instance can be shared by all the logging threads: the output of a record is built into a buffer owned by
+ * the calling thread and reused from one record to the next, so the only allocation is the resulting string.
+ */
+abstract class AbstractLogFormatter extends ExtFormatter implements CloudWatchLogFormatter {
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    // Buffers that grew beyond that size because of an exceptionally large record are not kept for the next records.
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    // Thread names may embed a counter, the caches must not grow with them.
+    static final int MAX_CACHED_NAMES = 1024;
+
+    static final String TRUNCATED_TAG = " (...)";
+
+    private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+    @Override
+    public String format(ExtLogRecord record) {
+        return format(record, record.getMessage());
+    }
+
+    @Override
+    public String format(ExtLogRecord record, String message) {
+        return format(record, message, false);
+    }
+
+    @Override
+    public String formatSnapshot(ExtLogRecord record, String message) {
+        return format(record, message, true);
+    }
+
+    private String format(ExtLogRecord record, String message, boolean snapshot) {
+        Buffer buffer = BUFFERS.get();
+        if (buffer.inUse) {
+            // The formatting of a record logged something, on the same thread, while the buffer was already in use.
+            StringBuilder builder = new StringBuilder(INITIAL_BUFFER_SIZE);
+            formatTo(builder, record, message, snapshot);
+            return builder.toString();
+        }
+        buffer.inUse = true;
+        try {
+            StringBuilder builder = buffer.acquire();
+            formatTo(builder, record, message, snapshot);
+            return builder.toString();
+        } finally {
+            buffer.inUse = false;
+        }
+    }
+
+    /**
+     * @param snapshot whether the MDC of the record was copied when it was logged, and must be read from the record
+     */
+    abstract void formatTo(StringBuilder builder, ExtLogRecord record, String message, boolean snapshot);
+
+    /**
+     * Whether the record has no MDC entry, found out without copying the MDC.
+     * <p>
+     * jboss-logmanager only gives access to all the MDC entries of a record through a copy. As long as the record is
+     * formatted on the thread that logged it, its MDC is the one of the thread, which tells cheaply whether it is empty,
+     * the most common case.
+     */
+    static boolean hasEmptyMdc(ExtLogRecord record) {
+        return record.getLongThreadID() == Thread.currentThread().getId() && MDC.isEmpty();
+    }
+
+    /**
+     * Removes at least {@code excess} characters from the end of the text between {@code start} and {@code end}, or all
+     * of them, and appends {@link #TRUNCATED_TAG}.
+     *
+     * @param escaped whether the text is an escaped JSON string value, which must not be cut within an escape sequence
+     * @return the number of characters removed, the tag deducted
+     */
+    static int shorten(StringBuilder builder, int start, int end, int excess, boolean escaped) {
+        if (end - start <= TRUNCATED_TAG.length()) {
+            return 0;
+        }
+        int cut = safeCut(builder, start, Math.max(start, end - excess - TRUNCATED_TAG.length()), escaped);
+        builder.replace(cut, end, TRUNCATED_TAG);
+        return end - cut - TRUNCATED_TAG.length();
+    }
+
+    /**
+     * Cuts the output at the maximum length if shortening its fields was not enough, because the other fields alone
+     * exceed it. A JSON document is not valid anymore then, but the maximum length is never exceeded.
+     */
+    static void cap(StringBuilder builder, int maxLength) {
+        if (builder.length() <= maxLength) {
+            return;
+        }
+        int cut = safeCut(builder, 0, Math.max(0, maxLength - TRUNCATED_TAG.length()), false);
+        builder.setLength(cut);
+        builder.append(TRUNCATED_TAG, 0, Math.min(TRUNCATED_TAG.length(), maxLength - cut));
+    }
+
+    /**
+     * The last position up to the given one where the text can be cut, neither between the two halves of a surrogate
+     * pair nor, if escaped, within an escape sequence.
+     */
+    private static int safeCut(StringBuilder builder, int start, int position, boolean escaped) {
+        int cut = start;
+        int i = start;
+        while (i < position) {
+            char c = builder.charAt(i);
+            if (escaped && c == '\\') {
+                i += builder.charAt(i + 1) == 'u' ? 6 : 2;
+            } else {
+                i += Character.isHighSurrogate(c) ? 2 : 1;
+            }
+            if (i <= position) {
+                cut = i;
+            }
+        }
+        return cut;
+    }
+
+    static String serializeField(String key, CharSequence value) {
+        StringBuilder builder = new StringBuilder();
+        builder.append('"');
+        JsonUtils.quoteAsString(key, builder);
+        builder.append("\":\"");
+        JsonUtils.quoteAsString(value, builder);
+        builder.append("\",");
+        return builder.toString();
+    }
+
+    /**
+     * The serialized JSON field of every value seen so far, up to {@link #MAX_CACHED_NAMES} values.
+     */
+    static final class FieldCache {
+
+        private final String key;
+        private final ConcurrentMap<String, String> fields = new ConcurrentHashMap<>();
+
+        FieldCache(String key) {
+            this.key = key;
+        }
+
+        void appendTo(StringBuilder builder, String value) {
+            if (value == null) {
+                return;
+            }
+            String field = fields.get(value);
+            if (field == null) {
+                field = serializeField(key, value);
+                if (fields.size() < MAX_CACHED_NAMES) {
+                    fields.putIfAbsent(value, field);
+                }
+            }
+            builder.append(field);
+        }
+    }
+
+    private static final class Buffer {
+
+        private StringBuilder builder = new StringBuilder(INITIAL_BUFFER_SIZE);
+        private boolean inUse;
+
+        StringBuilder acquire() {
+            if (builder.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+                builder = new StringBuilder(INITIAL_BUFFER_SIZE);
+            } else {
+                builder.setLength(0);
+            }
+            return builder;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch.format;
+
+import org.jboss.logmanager.ExtLogRecord;
+
+/**
+ * Formats log records into the messages of CloudWatch log events.
+ * <p>
+ * The formatter is selected with {@code quarkus.log.cloudwatch.format}. With {@code custom}, it is the CDI bean
+ * implementing this interface, which the application declares with a bean defining annotation such as
+ * {@code @ApplicationScoped}.
+ * <p>
+ * A single instance formats the records of all the logging threads, and of the publishers with deferred formatting.
+ */
+public interface CloudWatchLogFormatter {
+
+    /**
+     * Formats the record with the given message instead of the message of the record, which is left untouched since
+     * the record is shared with the other handlers.
+     *
+     * @param message the message of the record, its parameters already formatted
+     */
+    String format(ExtLogRecord record, String message);
+
+    /**
+     * Formats a record whose MDC was copied with {@link ExtLogRecord#copyMdc()} when it was logged, from any thread and
+     * whatever the MDC of that thread is now. Formatters reading the MDC through {@link ExtLogRecord#getMdcCopy()} have
+     * nothing to do differently.
+     */
+    default String formatSnapshot(ExtLogRecord record, String message) {
+        return format(record, message);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch.format;
+
+import java.util.Optional;
+
+import org.jboss.logmanager.ExtLogRecord;
+
+import co.elastic.logging.EcsJsonSerializer;
+import co.elastic.logging.JsonUtils;
+
+/**
+ * Formats log records as JSON documents with short field names and without the ECS envelope.
+ * <p>
+ * The timestamp is left out, CloudWatch keeps the one of each log event. A document holds the {@code level},
+ * {@code message}, {@code env}, {@code thread} and {@code logger} fields, then the MDC entries and the
+ * {@code error.type}, {@code error.message} and {@code error.stack_trace} fields of the throwable, on a single line.
+ * <p>
+ * A document longer than the maximum length is shortened like the ones of {@link ElasticCommonSchemaLogFormatter}.
+ */
+public class CompactJsonLogFormatter extends AbstractLogFormatter {
+
+    private final String serviceEnvironmentField;
+    private final StackTraceEncoder stackTraceEncoder;
+    private final int maxLength;
+    private final FieldCache loggerNameFields = new FieldCache("logger");
+    private final FieldCache threadNameFields = new FieldCache("thread");
+
+    /**
+     * @param maxLength the maximum length of a document, 0 for no limit
+     */
+    public CompactJsonLogFormatter(Optional<String> serviceEnvironment, StackTraceEncoder stackTraceEncoder,
+            int maxLength) {
+        this.serviceEnvironmentField = serviceEnvironment.map(environment -> serializeField("env", environment))
+                .orElse(null);
+        this.stackTraceEncoder = stackTraceEncoder;
+        this.maxLength = maxLength;
+    }
+
+    @Override
+    void formatTo(StringBuilder builder, ExtLogRecord record, String message, boolean snapshot) {
+        builder.append("{\"level\":\"").append(record.getLevel().getName()).append("\",\"message\":\"");
+        int messageStart = builder.length();
+        JsonUtils.quoteAsString(message, builder);
+        int messageEnd = builder.length();
+        builder.append("\",");
+        if (serviceEnvironmentField != null) {
+            builder.append(serviceEnvironmentField);
+        }
+        threadNameFields.appendTo(builder, record.getThreadName());
+        loggerNameFields.appendTo(builder, record.getLoggerName());
+        if (snapshot || !hasEmptyMdc(record)) {
+            EcsJsonSerializer.serializeMDC(builder, record.getMdcCopy());
+        }
+
+        int stackTraceStart = -1;
+        int stackTraceEnd = -1;
+        if (record.getThrown() != null) {
+            stackTraceStart = stackTraceEncoder.appendTo(builder, record.getThrown());
+            stackTraceEnd = builder.length() - 1;
+        } else {
+            // The trailing comma of the last field.
+            builder.setLength(builder.length() - 1);
+        }
+        builder.append('}');
+
+        if (maxLength > 0 && builder.length() > maxLength) {
+            int excess = builder.length() - maxLength;
+            if (stackTraceStart >= 0) {
+                excess -= shorten(builder, stackTraceStart, stackTraceEnd, excess, true);
+            }
+            if (excess > 0) {
+                shorten(builder, messageStart, messageEnd, excess, true);
+            }
+            cap(builder, maxLength);
+        }
+    }
+}
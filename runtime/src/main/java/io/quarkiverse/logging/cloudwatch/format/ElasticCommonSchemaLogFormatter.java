@@ -18,35 +18,70 @@ package io.quarkiverse.logging.cloudwatch.format;
 
 import static co.elastic.logging.EcsJsonSerializer.toNullSafeString;
 
+import java.util.List;
 import java.util.Optional;
 
-import org.jboss.logmanager.ExtFormatter;
 import org.jboss.logmanager.ExtLogRecord;
 
 import co.elastic.logging.EcsJsonSerializer;
 import co.elastic.logging.JsonUtils;
 
-public class ElasticCommonSchemaLogFormatter extends ExtFormatter {
+/**
+ * Formats log records as Elastic Common Schema JSON documents.
+ * <p>
+ * The fields that do not change from one record to the next are escaped once: the service environment when the formatter
+ * is created, the logger and thread names the first time they are seen, up to {@value #MAX_CACHED_NAMES} names each.
+ * The throwables are serialized by a {@link StackTraceEncoder}, which caches them too.
+ * <p>
+ * A document longer than the maximum length is shortened by truncating the stack trace first, then the message. Both
+ * are cut on a character boundary of their escaped value and end with {@value #TRUNCATED_TAG}, so the document remains
+ * valid JSON. A document whose other fields alone exceed the maximum length is then cut at the maximum length, and is
+ * not valid JSON anymore.
+ * <p>
+ * Without a maximum length, neither for the document nor for the stack trace, and without collapsed packages, the output
+ * is the same as the one of {@link EcsJsonSerializer}.
+ */
+public class ElasticCommonSchemaLogFormatter extends AbstractLogFormatter {
 
-    private Optional<String> serviceEnvironment;
+    private final String serviceEnvironmentField;
+    private final StackTraceEncoder stackTraceEncoder;
+    private final int maxLength;
+    private final FieldCache loggerNameFields = new FieldCache("log.logger");
+    private final FieldCache threadNameFields = new FieldCache("process.thread.name");
 
     public ElasticCommonSchemaLogFormatter(Optional<String> serviceEnvironment) {
-        this.serviceEnvironment = serviceEnvironment;
+        this(serviceEnvironment, new StackTraceEncoder(0, List.of()), 0);
     }
 
-    @Override
-    public String format(ExtLogRecord record) {
-        StringBuilder builder = new StringBuilder();
+    /**
+     * @param maxLength the maximum length of a document, 0 for no limit
+     */
+    public ElasticCommonSchemaLogFormatter(Optional<String> serviceEnvironment, StackTraceEncoder stackTraceEncoder,
+            int maxLength) {
+        this.serviceEnvironmentField = serviceEnvironment != null && serviceEnvironment.isPresent()
+                ? serializeField("service.environment", toNullSafeString(serviceEnvironment.get()))
+                : null;
+        this.stackTraceEncoder = stackTraceEncoder;
+        this.maxLength = maxLength;
+    }
 
+    @Override
+    void formatTo(StringBuilder builder, ExtLogRecord record, String message, boolean snapshot) {
         EcsJsonSerializer.serializeObjectStart(builder, record.getMillis());
         EcsJsonSerializer.serializeLogLevel(builder, record.getLevel().getName());
-        EcsJsonSerializer.serializeFormattedMessage(builder, record.getMessage());
-        if (serviceEnvironment != null && serviceEnvironment.isPresent()) {
-            serializeField(builder, serviceEnvironment.get());
+        builder.append("\"message\":\"");
+        int messageStart = builder.length();
+        JsonUtils.quoteAsString(message, builder);
+        int messageEnd = builder.length();
+        builder.append("\",");
+        if (serviceEnvironmentField != null) {
+            builder.append(serviceEnvironmentField);
+        }
+        threadNameFields.appendTo(builder, record.getThreadName());
+        loggerNameFields.appendTo(builder, record.getLoggerName());
+        if (snapshot || !hasEmptyMdc(record)) {
+            EcsJsonSerializer.serializeMDC(builder, record.getMdcCopy());
         }
-        EcsJsonSerializer.serializeThreadName(builder, record.getThreadName());
-        EcsJsonSerializer.serializeLoggerName(builder, record.getLoggerName());
-        EcsJsonSerializer.serializeMDC(builder, record.getMdcCopy());
 
         boolean includeOrigin = false;
         if (includeOrigin && record.getSourceFileName() != null && record.getSourceMethodName() != null) {
@@ -54,18 +89,24 @@ public class ElasticCommonSchemaLogFormatter extends ExtFormatter {
                     record.getSourceLineNumber());
         }
 
-        boolean stackTraceAsArray = false;
-        EcsJsonSerializer.serializeException(builder, record.getThrown(), stackTraceAsArray);
+        int stackTraceStart = -1;
+        int stackTraceEnd = -1;
+        if (record.getThrown() != null) {
+            stackTraceStart = stackTraceEncoder.appendTo(builder, record.getThrown());
+            stackTraceEnd = builder.length() - 1;
+        }
         EcsJsonSerializer.serializeObjectEnd(builder);
 
-        return builder.toString();
-    }
-
-    private void serializeField(StringBuilder builder, String value) {
-        builder.append('"');
-        JsonUtils.quoteAsString("service.environment", builder);
-        builder.append("\":\"");
-        JsonUtils.quoteAsString(toNullSafeString(value), builder);
-        builder.append("\",");
+        if (maxLength > 0 && builder.length() > maxLength) {
+            int excess = builder.length() - maxLength;
+            // The stack trace comes after the message, shortening it leaves the position of the message as is.
+            if (stackTraceStart >= 0) {
+                excess -= shorten(builder, stackTraceStart, stackTraceEnd, excess, true);
+            }
+            if (excess > 0) {
+                shorten(builder, messageStart, messageEnd, excess, true);
+            }
+            cap(builder, maxLength);
+        }
     }
 }
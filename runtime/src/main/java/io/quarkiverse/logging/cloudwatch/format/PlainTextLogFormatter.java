@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch.format;
+
+import java.util.Map;
+
+import org.jboss.logmanager.ExtLogRecord;
+
+/**
+ * Formats log records as text, like the console does: {@code INFO [com.acme.Logger] (main) message {mdc=entries}},
+ * followed by the stack trace of the throwable on the next lines.
+ * <p>
+ * The timestamp is left out, CloudWatch keeps the one of each log event. A message longer than the maximum length is
+ * shortened by truncating the stack trace first, then the message, both ending with {@value #TRUNCATED_TAG}, and is cut
+ * at the maximum length if still longer.
+ */
+public class PlainTextLogFormatter extends AbstractLogFormatter {
+
+    private final StackTraceEncoder stackTraceEncoder;
+    private final int maxLength;
+
+    /**
+     * @param maxLength the maximum length of a message, 0 for no limit
+     */
+    public PlainTextLogFormatter(StackTraceEncoder stackTraceEncoder, int maxLength) {
+        this.stackTraceEncoder = stackTraceEncoder;
+        this.maxLength = maxLength;
+    }
+
+    @Override
+    void formatTo(StringBuilder builder, ExtLogRecord record, String message, boolean snapshot) {
+        String level = record.getLevel().getName();
+        builder.append(level);
+        for (int i = level.length(); i < 5; i++) {
+            builder.append(' ');
+        }
+        builder.append(" [").append(record.getLoggerName()).append("] (").append(record.getThreadName()).append(") ");
+        int messageStart = builder.length();
+        builder.append(message);
+        int messageEnd = builder.length();
+        if (snapshot || !hasEmptyMdc(record)) {
+            Map<String, String> mdc = record.getMdcCopy();
+            if (!mdc.isEmpty()) {
+                builder.append(' ').append(mdc);
+            }
+        }
+
+        int stackTraceStart = -1;
+        int stackTraceEnd = -1;
+        if (record.getThrown() != null) {
+            builder.append('\n');
+            stackTraceStart = builder.length();
+            stackTraceEncoder.appendStackTraceTo(builder, record.getThrown());
+            // The line separator of the last line.
+            builder.setLength(builder.length() - 1);
+            stackTraceEnd = builder.length();
+        }
+
+        if (maxLength > 0 && builder.length() > maxLength) {
+            int excess = builder.length() - maxLength;
+            if (stackTraceStart >= 0) {
+                excess -= shorten(builder, stackTraceStart, stackTraceEnd, excess, false);
+            }
+            if (excess > 0) {
+                shorten(builder, messageStart, messageEnd, excess, false);
+            }
+            cap(builder, maxLength);
+        }
+    }
+}
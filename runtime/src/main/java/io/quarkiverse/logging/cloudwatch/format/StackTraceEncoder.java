@@ -0,0 +1,314 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch.format;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import co.elastic.logging.JsonUtils;
+
+/**
+ * Serializes throwables as the {@code error.type}, {@code error.message} and {@code error.stack_trace} ECS fields, or
+ * as a plain stack trace.
+ * <p>
+ * The stack trace reads like the one of {@link Throwable#printStackTrace()}, frames in common with the enclosing trace
+ * included, with two differences:
+ * <ul>
+ * <li>consecutive frames of the collapsed packages, such as reflection or the I/O frameworks, are replaced by a line
+ * telling how many were omitted,</li>
+ * <li>once the stack trace reaches its maximum length, the remaining frames of each throwable are replaced by a line
+ * telling how many were truncated, and the throwables whose first line does not fit anymore are left out. The stack
+ * trace may exceed the maximum length by these lines only. The length is the one of the stack trace before it is
+ * escaped as JSON.</li>
+ * </ul>
+ * The same exceptions tend to be logged over and over, so the fields are cached: the ones of the last throwable by
+ * identity, without keeping it from being garbage collected, and the {@value #MAX_CACHED_EXCEPTIONS} most recently used others
+ * by the type, message and frames of the
+ * whole chain.
+ */
+public final class StackTraceEncoder {
+
+    static final int MAX_CACHED_EXCEPTIONS = 256;
+
+    private static final StackTraceElement[] NO_FRAMES = new StackTraceElement[0];
+
+    private final int maxLength;
+    private final String[] collapsedPackages;
+    // Guarded by itself, in access order to evict the least recently used exception.
+    private final Map<Fingerprint, Encoded> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Fingerprint, Encoded> eldest) {
+            return size() > MAX_CACHED_EXCEPTIONS;
+        }
+    };
+    private volatile Last last;
+
+    /**
+     * @param maxLength the maximum length of the stack trace before it is escaped, 0 for no limit
+     * @param collapsedPackages the packages whose consecutive frames are collapsed, subpackages included
+     */
+    public StackTraceEncoder(int maxLength, List<String> collapsedPackages) {
+        this.maxLength = maxLength;
+        this.collapsedPackages = collapsedPackages.stream()
+                .map(name -> name.endsWith(".") ? name : name + ".")
+                .toArray(String[]::new);
+    }
+
+    /**
+     * Appends the fields of the throwable, without a trailing comma.
+     *
+     * @return the index in the builder where the escaped stack trace starts, which ends before the last character
+     */
+    int appendTo(StringBuilder builder, Throwable throwable) {
+        Encoded encoded = encode(throwable);
+        int start = builder.length() + encoded.stackTraceOffset;
+        builder.append(encoded.fields);
+        return start;
+    }
+
+    /**
+     * Appends the stack trace as is, unescaped.
+     */
+    void appendStackTraceTo(StringBuilder builder, Throwable throwable) {
+        builder.append(encode(throwable).stackTrace);
+    }
+
+    private Encoded encode(Throwable throwable) {
+        Last last = this.last;
+        if (last != null && last.throwable.get() == throwable) {
+            return last.encoded;
+        }
+        Fingerprint fingerprint = new Fingerprint(throwable);
+        Encoded encoded;
+        synchronized (cache) {
+            encoded = cache.get(fingerprint);
+        }
+        if (encoded == null) {
+            encoded = encodeFields(throwable);
+            synchronized (cache) {
+                cache.put(fingerprint, encoded);
+            }
+        }
+        this.last = new Last(throwable, encoded);
+        return encoded;
+    }
+
+    private Encoded encodeFields(Throwable throwable) {
+        StringBuilder stackTrace = new StringBuilder(1024);
+        new StackTraceWriter(stackTrace).append(throwable, NO_FRAMES, "", "",
+                Collections.newSetFromMap(new IdentityHashMap<>()));
+
+        StringBuilder fields = new StringBuilder(stackTrace.length() + 256);
+        fields.append("\"error.type\":\"");
+        JsonUtils.quoteAsString(throwable.getClass().getName(), fields);
+        fields.append("\",");
+        String message = throwable.getMessage();
+        if (message != null) {
+            fields.append("\"error.message\":\"");
+            JsonUtils.quoteAsString(message, fields);
+            fields.append("\",");
+        }
+        fields.append("\"error.stack_trace\":\"");
+        int stackTraceOffset = fields.length();
+        JsonUtils.quoteAsString(stackTrace, fields);
+        fields.append('"');
+        return new Encoded(fields.toString(), stackTraceOffset, stackTrace.toString());
+    }
+
+    int cachedExceptions() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    private boolean isCollapsed(StackTraceElement frame) {
+        String className = frame.getClassName();
+        for (String collapsedPackage : collapsedPackages) {
+            if (className.startsWith(collapsedPackage)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private final class StackTraceWriter {
+
+        private final StringBuilder text;
+        private boolean full;
+
+        StackTraceWriter(StringBuilder text) {
+            this.text = text;
+        }
+
+        /**
+         * Follows {@code Throwable.printEnclosedStackTrace}.
+         */
+        void append(Throwable throwable, StackTraceElement[] enclosingTrace, String caption, String prefix,
+                Set<Throwable> dejaVu) {
+            if (full) {
+                return;
+            }
+            if (!dejaVu.add(throwable)) {
+                line(prefix, caption, "[CIRCULAR REFERENCE: " + throwable + "]");
+                return;
+            }
+            StackTraceElement[] trace = throwable.getStackTrace();
+            int m = trace.length - 1;
+            int n = enclosingTrace.length - 1;
+            while (m >= 0 && n >= 0 && trace[m].equals(enclosingTrace[n])) {
+                m--;
+                n--;
+            }
+            int framesInCommon = trace.length - 1 - m;
+
+            if (!line(prefix, caption, throwable)) {
+                full = true;
+                marker(prefix, "... truncated");
+                return;
+            }
+            appendFrames(trace, m + 1, prefix);
+            if (framesInCommon != 0) {
+                line(prefix, "\t... ", framesInCommon + " more");
+            }
+            for (Throwable suppressed : throwable.getSuppressed()) {
+                append(suppressed, trace, "Suppressed: ", prefix + "\t", dejaVu);
+            }
+            Throwable cause = throwable.getCause();
+            if (cause != null) {
+                append(cause, trace, "Caused by: ", prefix, dejaVu);
+            }
+        }
+
+        private void appendFrames(StackTraceElement[] trace, int count, String prefix) {
+            int i = 0;
+            while (i < count) {
+                int collapsed = 0;
+                while (i + collapsed < count && isCollapsed(trace[i + collapsed])) {
+                    collapsed++;
+                }
+                boolean written;
+                if (collapsed > 1) {
+                    written = line(prefix, "\t... ", collapsed + " framework frames omitted");
+                    i += written ? collapsed : 0;
+                } else {
+                    written = line(prefix, "\tat ", trace[i]);
+                    i += written ? 1 : 0;
+                }
+                if (!written) {
+                    marker(prefix, "\t... " + (count - i) + " frames truncated");
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Appends the line unless it would exceed the maximum length.
+         */
+        private boolean line(String prefix, String caption, Object value) {
+            int start = text.length();
+            text.append(prefix).append(caption).append(value);
+            if (maxLength > 0 && text.length() + 1 > maxLength) {
+                text.setLength(start);
+                return false;
+            }
+            text.append('\n');
+            return true;
+        }
+
+        private void marker(String prefix, String value) {
+            text.append(prefix).append(value).append('\n');
+        }
+    }
+
+    /**
+     * The types, messages and frames of a throwable and of its causes and suppressed throwables.
+     */
+    private static final class Fingerprint {
+
+        private final Object[] parts;
+        private final int hashCode;
+
+        Fingerprint(Throwable throwable) {
+            List<Object> parts = new ArrayList<>();
+            collect(throwable, parts, Collections.newSetFromMap(new IdentityHashMap<>()));
+            this.parts = parts.toArray();
+            this.hashCode = Arrays.deepHashCode(this.parts);
+        }
+
+        private static void collect(Throwable throwable, List<Object> parts, Set<Throwable> dejaVu) {
+            if (!dejaVu.add(throwable)) {
+                parts.add(null);
+                return;
+            }
+            parts.add(throwable.getClass().getName());
+            parts.add(throwable.toString());
+            parts.add(throwable.getStackTrace());
+            Throwable[] suppressed = throwable.getSuppressed();
+            parts.add(suppressed.length);
+            for (Throwable s : suppressed) {
+                collect(s, parts, dejaVu);
+            }
+            Throwable cause = throwable.getCause();
+            if (cause != null) {
+                collect(cause, parts, dejaVu);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof Fingerprint && hashCode == ((Fingerprint) o).hashCode
+                    && Arrays.deepEquals(parts, ((Fingerprint) o).parts));
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class Encoded {
+
+        private final String fields;
+        private final int stackTraceOffset;
+        private final String stackTrace;
+
+        Encoded(String fields, int stackTraceOffset, String stackTrace) {
+            this.fields = fields;
+            this.stackTraceOffset = stackTraceOffset;
+            this.stackTrace = stackTrace;
+        }
+    }
+
+    private static final class Last {
+
+        // The throwable may reference the objects of a whole request through its fields or its causes.
+        private final WeakReference<Throwable> throwable;
+        private final Encoded encoded;
+
+        Last(Throwable throwable, Encoded encoded) {
+            this.throwable = new WeakReference<>(throwable);
+            this.encoded = encoded;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch.queue;
+
+import java.util.Collection;
+
+/**
+ * Hands the log events over from the threads that log them to the thread that sends them to CloudWatch.
+ * <p>
+ * Any number of threads may offer events concurrently, but only a single thread at a time may drain the queue.
+ *
+ * @param <E> the type of the queued events
+ */
+public interface EventQueue<E> {
+
+    /**
+     * Inserts the event if the queue is not full.
+     *
+     * @return {@code false} if the queue is full and the event was not inserted
+     */
+    boolean offer(E event);
+
+    /**
+     * Removes at most the given number of events from the queue and adds them to the given collection, in queue order.
+     *
+     * @return the number of events transferred
+     */
+    int drainTo(Collection<? super E> collection, int maxEvents);
+
+    /**
+     * The number of queued events. This is an estimate while events are concurrently offered or drained.
+     */
+    int size();
+
+    /**
+     * The maximum number of queued events, {@link Integer#MAX_VALUE} if the queue is unbounded.
+     */
+    int capacity();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch.queue;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * An {@link EventQueue} backed by a {@link LinkedBlockingQueue}, optionally bounded.
+ */
+public class LinkedEventQueue<E> implements EventQueue<E> {
+
+    private final BlockingQueue<E> queue;
+    private final int capacity;
+
+    public LinkedEventQueue(Optional<Integer> maxSize) {
+        this.capacity = maxSize.orElse(Integer.MAX_VALUE);
+        this.queue = maxSize.<BlockingQueue<E>> map(LinkedBlockingQueue::new).orElseGet(LinkedBlockingQueue::new);
+    }
+
+    @Override
+    public boolean offer(E event) {
+        return queue.offer(event);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> collection, int maxEvents) {
+        return queue.drainTo(collection, maxEvents);
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+}
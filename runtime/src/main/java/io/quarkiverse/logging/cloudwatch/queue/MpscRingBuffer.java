@@ -0,0 +1,121 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch.queue;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free, multi-producer single-consumer {@link EventQueue}.
+ * <p>
+ * All the slots are allocated up front, so offering an event allocates nothing and producers never take a lock: they
+ * only compete on a compare-and-set of the producer index. Each slot carries a sequence number which tells whether the
+ * slot is free for the producer of a given position or holds an event ready for the consumer, as in Dmitry Vyukov's
+ * bounded queue. Since there is a single consumer, the consumer index is advanced without any atomic operation.
+ *
+ * @param <E> the type of the queued events
+ */
+public class MpscRingBuffer<E> implements EventQueue<E> {
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<E> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong producerIndex = new AtomicLong();
+    // Only written by the consumer, volatile so that the producers can compute the size of the queue.
+    private volatile long consumerIndex;
+
+    /**
+     * @param requestedCapacity the minimum capacity of the buffer, rounded up to the next power of two
+     */
+    public MpscRingBuffer(int requestedCapacity) {
+        if (requestedCapacity < 1 || requestedCapacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid ring buffer capacity: " + requestedCapacity);
+        }
+        this.capacity = requestedCapacity == 1 ? 1 : Integer.highestOneBit(requestedCapacity - 1) << 1;
+        this.mask = capacity - 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public boolean offer(E event) {
+        if (event == null) {
+            throw new NullPointerException();
+        }
+        long position = producerIndex.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                // The slot is free for this position, let's try to claim it.
+                if (producerIndex.compareAndSet(position, position + 1)) {
+                    slots.lazySet(index, event);
+                    // Publishes the event to the consumer.
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = producerIndex.get();
+            } else if (difference < 0) {
+                // The slot still holds the event from the previous lap, the buffer is full.
+                return false;
+            } else {
+                // Another producer claimed this position in the meantime.
+                position = producerIndex.get();
+            }
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> collection, int maxEvents) {
+        long position = consumerIndex;
+        int drained = 0;
+        while (drained < maxEvents) {
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) {
+                // Either the buffer is empty or the producer of that slot has not published its event yet.
+                break;
+            }
+            collection.add(slots.get(index));
+            slots.lazySet(index, null);
+            // Frees the slot for the producer of the next lap.
+            sequences.lazySet(index, position + capacity);
+            position++;
+            drained++;
+        }
+        consumerIndex = position;
+        return drained;
+    }
+
+    @Override
+    public int size() {
+        // Reading the consumer index first guarantees that the difference is never negative.
+        long consumer = consumerIndex;
+        long producer = producerIndex.get();
+        return (int) Math.min(producer - consumer, capacity);
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch.queue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.jboss.logging.Logger;
+
+/**
+ * An append-only log of events kept on disk, read back in the order the events were appended.
+ * <p>
+ * The log is made of fixed-size segment files mapped in memory. Each record is made of its total length, the timestamp
+ * and the UTF-8 bytes of the message. The length is written last, so a record interrupted by a crash is never read,
+ * and is negated once the record was read so that it is skipped when the log is opened again after a restart. A
+ * segment file is deleted as soon as all of its records were read. The segments left by a previous run are read with
+ * their own size, even if the segment size was changed since.
+ * <p>
+ * Reading an event removes it from the log, before the caller sent it anywhere. The log is therefore best-effort: the
+ * events read but not sent yet only survive a graceful shutdown, if the caller appends them again.
+ * <p>
+ * The spill log is the slow path of the event queue: all its methods are synchronized.
+ */
+public class SpillLog implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(SpillLog.class);
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".spill";
+    // Length of the record, then timestamp.
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES + Long.BYTES;
+
+    @FunctionalInterface
+    public interface EventConsumer {
+        void accept(long timestamp, String message);
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    // Segments in reading order, the last one is the segment being written if any.
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private Segment writeSegment;
+    private long nextSegmentId;
+    private int size;
+    private boolean closed;
+    // Reused by all the reads, it grows up to the size of the largest message.
+    private byte[] readBuffer = new byte[1024];
+
+    /**
+     * Opens the spill log stored in the given directory, with the events left by a previous run if any.
+     */
+    public SpillLog(Path directory, long maxSize, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.max(1, maxSize / segmentSize);
+        Files.createDirectories(directory);
+
+        List<Path> existingSegments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(SpillLog::isSegment).sorted().forEach(existingSegments::add);
+        }
+        for (Path path : existingSegments) {
+            // The segment size may have been changed since, the segment is read with the size it was written with.
+            Segment segment = Segment.open(path, segmentIdOf(path), (int) Math.min(Files.size(path), Integer.MAX_VALUE));
+            nextSegmentId = segment.id + 1;
+            if (segment.recover() == 0) {
+                segment.delete();
+            } else {
+                size += segment.unread;
+                segments.addLast(segment);
+            }
+        }
+        if (size > 0) {
+            LOGGER.infof("Found %d log events spilled to %s by a previous run", size, directory);
+        }
+    }
+
+    /**
+     * Appends the event to the log.
+     *
+     * @return {@code false} if the event could not be written, because the log reached its maximum size or because of
+     *         an I/O error
+     */
+    public synchronized boolean append(long timestamp, String message) {
+        if (closed) {
+            return false;
+        }
+        // Room for the exact length of valid UTF-16, a few bytes too many for each lone surrogate.
+        int length = RECORD_HEADER_SIZE + Utf8.encodedLength(message);
+        if (length > segmentSize) {
+            return false;
+        }
+        if (writeSegment == null || writeSegment.writePosition + length > segmentSize) {
+            if (segments.size() >= maxSegments) {
+                return false;
+            }
+            try {
+                writeSegment = Segment.open(directory.resolve(segmentName(nextSegmentId)), nextSegmentId, segmentSize);
+            } catch (IOException e) {
+                LOGGER.error("Unable to create a new spill segment in " + directory, e);
+                return false;
+            }
+            nextSegmentId++;
+            segments.addLast(writeSegment);
+        }
+        MappedByteBuffer buffer = writeSegment.buffer;
+        int position = writeSegment.writePosition;
+        buffer.putLong(position + Integer.BYTES, timestamp);
+        length = RECORD_HEADER_SIZE + Utf8.encode(message, buffer, position + RECORD_HEADER_SIZE);
+        // The length makes the record visible, it has to be written last.
+        buffer.putInt(position, length);
+        writeSegment.writePosition = position + length;
+        size++;
+        return true;
+    }
+
+    /**
+     * Reads at most the given number of events, in the order they were appended, and removes them from the log right
+     * away, including from disk.
+     *
+     * @return the number of events read
+     */
+    public synchronized int drain(int maxEvents, EventConsumer consumer) {
+        int drained = 0;
+        while (drained < maxEvents && !segments.isEmpty()) {
+            Segment segment = segments.peekFirst();
+            int position = segment.readPosition;
+            int length = segment.lengthAt(position);
+            if (length == 0) {
+                if (segment == writeSegment) {
+                    break;
+                }
+                // All the records of the segment were read.
+                segments.pollFirst();
+                segment.delete();
+                continue;
+            }
+            if (length > 0) {
+                long timestamp = segment.buffer.getLong(position + Integer.BYTES);
+                int messageLength = length - RECORD_HEADER_SIZE;
+                if (readBuffer.length < messageLength) {
+                    readBuffer = new byte[Math.max(messageLength, 2 * readBuffer.length)];
+                }
+                segment.buffer.get(position + RECORD_HEADER_SIZE, readBuffer, 0, messageLength);
+                segment.buffer.putInt(position, -length);
+                size--;
+                drained++;
+                consumer.accept(timestamp, new String(readBuffer, 0, messageLength, StandardCharsets.UTF_8));
+            }
+            segment.readPosition = position + Math.abs(length);
+        }
+        return drained;
+    }
+
+    /**
+     * The number of events in the log.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+        writeSegment = null;
+    }
+
+    private static boolean isSegment(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static long segmentIdOf(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static String segmentName(long id) {
+        // Zero-padded, so that the lexicographic order of the files is the order of the segments.
+        return String.format("%s%019d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX);
+    }
+
+    private static final class Segment {
+
+        final Path path;
+        final long id;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int readPosition;
+        int writePosition;
+        int unread;
+
+        private Segment(Path path, long id, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.id = id;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment open(Path path, long id, int segmentSize) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            return new Segment(path, id, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        }
+
+        /**
+         * Finds the first unread record of a segment left by a previous run and counts the unread records.
+         *
+         * @return the number of unread records
+         */
+        int recover() {
+            readPosition = -1;
+            int position = 0;
+            int length;
+            while ((length = lengthAt(position)) != 0) {
+                if (length > 0) {
+                    if (readPosition < 0) {
+                        readPosition = position;
+                    }
+                    unread++;
+                }
+                position += Math.abs(length);
+            }
+            if (readPosition < 0) {
+                readPosition = position;
+            }
+            // Segments of a previous run are never written to again.
+            writePosition = buffer.capacity();
+            return unread;
+        }
+
+        int lengthAt(int position) {
+            if (position + RECORD_HEADER_SIZE > buffer.capacity()) {
+                return 0;
+            }
+            int length = buffer.getInt(position);
+            if (Math.abs(length) < RECORD_HEADER_SIZE || position + Math.abs(length) > buffer.capacity()) {
+                // Not a valid record, either the end of the records or a record torn by a crash.
+                return 0;
+            }
+            return length;
+        }
+
+        void close() {
+            buffer.force();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.debugf(e, "Unable to close the spill segment %s", path);
+            }
+        }
+
+        void delete() {
+            try {
+                channel.close();
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                LOGGER.warnf(e, "Unable to delete the spill segment %s", path);
+            }
+        }
+    }
+}
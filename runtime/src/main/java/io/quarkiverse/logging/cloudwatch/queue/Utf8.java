@@ -0,0 +1,90 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.quarkiverse.logging.cloudwatch.queue;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes strings as UTF-8 straight into a buffer, without the intermediate byte array of {@link String#getBytes}.
+ */
+public final class Utf8 {
+
+    private Utf8() {
+    }
+
+    /**
+     * Computes the UTF-8 encoded length of the given string without encoding it.
+     * <p>
+     * A lone surrogate counts as 3 bytes, so the length is never lower than the number of bytes actually written by
+     * {@link #encode}.
+     */
+    public static int encodedLength(CharSequence value) {
+        int length = value.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes++;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    // A surrogate pair is encoded as 4 bytes.
+                    bytes += 2;
+                    i++;
+                } else {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Encodes the string at the given absolute position of the buffer, which must have room for
+     * {@link #encodedLength} bytes. Lone surrogates are replaced with {@code '?'}, like {@link String#getBytes} does.
+     *
+     * @return the number of bytes written
+     */
+    public static int encode(CharSequence value, ByteBuffer buffer, int position) {
+        int start = position;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put(position++, (byte) c);
+            } else if (c < 0x800) {
+                buffer.put(position++, (byte) (0xC0 | c >> 6));
+                buffer.put(position++, (byte) (0x80 | c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer.put(position++, (byte) (0xF0 | codePoint >> 18));
+                    buffer.put(position++, (byte) (0x80 | codePoint >> 12 & 0x3F));
+                    buffer.put(position++, (byte) (0x80 | codePoint >> 6 & 0x3F));
+                    buffer.put(position++, (byte) (0x80 | codePoint & 0x3F));
+                } else {
+                    buffer.put(position++, (byte) '?');
+                }
+            } else {
+                buffer.put(position++, (byte) (0xE0 | c >> 12));
+                buffer.put(position++, (byte) (0x80 | c >> 6 & 0x3F));
+                buffer.put(position++, (byte) (0x80 | c & 0x3F));
+            }
+        }
+        return position - start;
+    }
+}
@@ -0,0 +1,62 @@
+package io.quarkiverse.logging.cloudwatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Map;
+
+import org.jboss.logmanager.Level;
+import org.junit.jupiter.api.Test;
+
+class AdmissionControllerTest {
+
+    private final AdmissionController testee = new AdmissionController(true, 0.5, Level.ERROR);
+
+    @Test
+    void shouldAdmitEverythingBelowThreshold() {
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(testee.admit(Level.TRACE, 0.5));
+        }
+        assertTrue(testee.droppedRecords().isEmpty());
+    }
+
+    @Test
+    void shouldNeverDropRecordsAtOrAboveNeverDropLevel() {
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(testee.admit(Level.ERROR, 1.0));
+            assertTrue(testee.admit(Level.FATAL, 1.0));
+        }
+    }
+
+    @Test
+    void shouldDropEverythingBelowNeverDropLevelWhenQueueIsAlmostFull() {
+        assertFalse(testee.admit(Level.TRACE, 0.9));
+        assertFalse(testee.admit(Level.INFO, 0.95));
+        assertFalse(testee.admit(Level.WARN, 1.0));
+
+        assertEquals(Map.of(Level.TRACE, 1L, Level.INFO, 1L, Level.WARN, 1L), testee.droppedRecords());
+    }
+
+    @Test
+    void shouldShedLowerLevelsFirst() {
+        // Half way between the threshold and a 90% full queue.
+        for (int i = 0; i < 10_000; i++) {
+            testee.admit(Level.DEBUG, 0.7);
+            testee.admit(Level.INFO, 0.7);
+            testee.admit(Level.WARN, 0.7);
+        }
+
+        Map<java.util.logging.Level, Long> dropped = testee.droppedRecords();
+        // Expected drop probabilities are 0.5, 0.5^4 and 0.5^9.
+        assertTrue(dropped.get(Level.DEBUG) > 4000 && dropped.get(Level.DEBUG) < 6000, dropped.toString());
+        assertTrue(dropped.get(Level.INFO) > 300 && dropped.get(Level.INFO) < 1000, dropped.toString());
+        assertTrue(dropped.getOrDefault(Level.WARN, 0L) < 100, dropped.toString());
+    }
+
+    @Test
+    void shouldAdmitEverythingWhenDisabled() {
+        AdmissionController disabled = new AdmissionController(false, 0.5, Level.ERROR);
+
+        assertTrue(disabled.admit(Level.TRACE, 1.0));
+        assertTrue(disabled.droppedRecords().isEmpty());
+    }
+}
@@ -0,0 +1,55 @@
+package io.quarkiverse.logging.cloudwatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+import software.amazon.awssdk.services.cloudwatchlogs.CloudWatchLogsAsyncClient;
+import software.amazon.awssdk.services.cloudwatchlogs.model.InputLogEvent;
+import software.amazon.awssdk.services.cloudwatchlogs.model.PutLogEventsRequest;
+import software.amazon.awssdk.services.cloudwatchlogs.model.PutLogEventsResponse;
+
+class AsyncLogEventsSenderTest {
+
+    @Test
+    void shouldLimitTheNumberOfBatchesInFlight() throws Exception {
+        CloudWatchLogsAsyncClient mockClient = mock(CloudWatchLogsAsyncClient.class);
+        CompletableFuture<PutLogEventsResponse> first = new CompletableFuture<>();
+        CompletableFuture<PutLogEventsResponse> second = new CompletableFuture<>();
+        CompletableFuture<PutLogEventsResponse> third = CompletableFuture
+                .completedFuture(PutLogEventsResponse.builder().build());
+        when(mockClient.putLogEvents(any(PutLogEventsRequest.class))).thenReturn(first, second, third);
+
+        AsyncLogEventsSender sender = new AsyncLogEventsSender(mockClient, "test-group", "test-stream", 2);
+        List<InputLogEvent> events = List.of(InputLogEvent.builder().message("message").timestamp(0L).build());
+
+        // The first two batches are handed over without waiting for their responses.
+        sender.send(events);
+        sender.send(events);
+        verify(mockClient, times(2)).putLogEvents(any(PutLogEventsRequest.class));
+
+        // The third one has to wait until one of them is done.
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> thirdSend = executor.submit(() -> sender.send(events));
+        assertThrows(TimeoutException.class, () -> thirdSend.get(200, TimeUnit.MILLISECONDS));
+
+        first.completeExceptionally(new IllegalStateException("Failure"));
+        thirdSend.get(5, TimeUnit.SECONDS);
+        verify(mockClient, times(3)).putLogEvents(any(PutLogEventsRequest.class));
+
+        second.complete(PutLogEventsResponse.builder().build());
+        sender.close(Duration.ofSeconds(5));
+        executor.shutdown();
+    }
+}
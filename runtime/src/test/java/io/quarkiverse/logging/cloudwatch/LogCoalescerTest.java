@@ -0,0 +1,108 @@
+package io.quarkiverse.logging.cloudwatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.Level;
+import org.junit.jupiter.api.Test;
+
+class LogCoalescerTest {
+
+    private final List<ExtLogRecord> summaries = new ArrayList<>();
+
+    @Test
+    void shouldLetTheFirstRecordThroughAndCountTheRepetitions() {
+        LogCoalescer coalescer = new LogCoalescer(Duration.ofSeconds(10), 10);
+
+        assertFalse(coalescer.coalesce(record("com.acme", Level.ERROR, "Connection refused", 1_000)));
+        for (int i = 1; i < 100; i++) {
+            assertTrue(coalescer.coalesce(record("com.acme", Level.ERROR, "Connection refused", 1_000 + i)));
+        }
+        coalescer.closeWindows(Long.MAX_VALUE, summaries::add);
+
+        assertEquals(99, coalescer.coalescedRecords());
+        assertEquals(1, summaries.size());
+        ExtLogRecord summary = summaries.get(0);
+        assertEquals("Connection refused", summary.getMessage());
+        assertEquals("99", summary.getMdc(LogCoalescer.REPEAT_COUNT_KEY));
+        assertEquals(Instant.ofEpochMilli(1_000).toString(), summary.getMdc(LogCoalescer.REPEAT_FIRST_KEY));
+        assertEquals(Instant.ofEpochMilli(1_099).toString(), summary.getMdc(LogCoalescer.REPEAT_LAST_KEY));
+        assertEquals(1_099, summary.getMillis());
+    }
+
+    @Test
+    void shouldOnlyFoldTheSameLoggerLevelAndTemplate() {
+        LogCoalescer coalescer = new LogCoalescer(Duration.ofSeconds(10), 10);
+
+        assertFalse(coalescer.coalesce(record("com.acme", Level.ERROR, "Connection refused", 0)));
+        assertFalse(coalescer.coalesce(record("com.acme.other", Level.ERROR, "Connection refused", 0)));
+        assertFalse(coalescer.coalesce(record("com.acme", Level.WARN, "Connection refused", 0)));
+        assertFalse(coalescer.coalesce(record("com.acme", Level.ERROR, "Connection reset", 0)));
+        coalescer.closeWindows(Long.MAX_VALUE, summaries::add);
+
+        // Windows without repetitions have nothing to summarize.
+        assertTrue(summaries.isEmpty());
+    }
+
+    @Test
+    void shouldOpenANewWindowOnceTheFirstOneExpired() {
+        LogCoalescer coalescer = new LogCoalescer(Duration.ofSeconds(1), 10);
+
+        assertFalse(coalescer.coalesce(record("com.acme", Level.ERROR, "Connection refused", 0)));
+        assertTrue(coalescer.coalesce(record("com.acme", Level.ERROR, "Connection refused", 500)));
+        assertFalse(coalescer.coalesce(record("com.acme", Level.ERROR, "Connection refused", 1_000)));
+        assertTrue(coalescer.coalesce(record("com.acme", Level.ERROR, "Connection refused", 1_500)));
+        assertTrue(coalescer.coalesce(record("com.acme", Level.ERROR, "Connection refused", 1_600)));
+
+        coalescer.closeWindows(1_000, summaries::add);
+        assertEquals(1, summaries.size());
+        assertEquals("1", summaries.get(0).getMdc(LogCoalescer.REPEAT_COUNT_KEY));
+
+        coalescer.closeWindows(2_000, summaries::add);
+        assertEquals(2, summaries.size());
+        assertEquals("2", summaries.get(1).getMdc(LogCoalescer.REPEAT_COUNT_KEY));
+    }
+
+    @Test
+    void shouldLetRecordsThroughOnceMaxFingerprintsIsReached() {
+        LogCoalescer coalescer = new LogCoalescer(Duration.ofSeconds(10), 1);
+
+        assertFalse(coalescer.coalesce(record("com.acme", Level.ERROR, "Connection refused", 0)));
+        assertFalse(coalescer.coalesce(record("com.acme", Level.ERROR, "Connection reset", 0)));
+        assertFalse(coalescer.coalesce(record("com.acme", Level.ERROR, "Connection reset", 1)));
+        assertTrue(coalescer.coalesce(record("com.acme", Level.ERROR, "Connection refused", 1)));
+    }
+
+    @Test
+    void shouldSnapshotTheParametersOfTheSummary() {
+        LogCoalescer coalescer = new LogCoalescer(Duration.ofSeconds(10), 10);
+        StringBuilder host = new StringBuilder("db-1");
+
+        assertFalse(coalescer.coalesce(record("com.acme", Level.ERROR, "Connection refused by {0}", 0, host)));
+        assertTrue(coalescer.coalesce(record("com.acme", Level.ERROR, "Connection refused by {0}", 1, host)));
+        host.replace(0, host.length(), "db-2");
+        coalescer.closeWindows(Long.MAX_VALUE, summaries::add);
+
+        assertEquals(1, summaries.size());
+        assertArrayEquals(new Object[] { "db-1" }, summaries.get(0).getParameters());
+    }
+
+    private static ExtLogRecord record(String loggerName, Level level, String message, long millis,
+            Object... parameters) {
+        ExtLogRecord record = record(loggerName, level, message, millis);
+        record.setParameters(parameters);
+        return record;
+    }
+
+    private static ExtLogRecord record(String loggerName, Level level, String message, long millis) {
+        ExtLogRecord record = new ExtLogRecord(level, message, LogCoalescerTest.class.getName());
+        record.setLoggerName(loggerName);
+        record.setInstant(Instant.ofEpochMilli(millis));
+        return record;
+    }
+}
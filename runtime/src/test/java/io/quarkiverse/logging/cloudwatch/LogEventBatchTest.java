@@ -0,0 +1,71 @@
+package io.quarkiverse.logging.cloudwatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+class LogEventBatchTest {
+
+    @Test
+    void shouldCloseBatchWhenMaxEventsIsReached() {
+        LogEventBatch batch = new LogEventBatch(2);
+
+        assertTrue(batch.tryAdd(event("a", 0)));
+        assertTrue(batch.tryAdd(event("b", 0)));
+        assertFalse(batch.tryAdd(event("c", 0)));
+
+        assertTrue(batch.isFull());
+        assertEquals(2, batch.events().size());
+    }
+
+    @Test
+    void shouldCloseBatchWhenNextEventWouldExceedMaxSize() {
+        LogEventBatch batch = new LogEventBatch(10_000);
+        String message = "x".repeat(100_000);
+
+        int added = 0;
+        while (batch.tryAdd(event(message, 0))) {
+            added++;
+        }
+
+        // 10 events of 100,026 bytes fit into 1,048,576 bytes, the 11th does not.
+        assertEquals(10, added);
+        assertEquals(10 * (100_000 + LogEventBatch.EVENT_OVERHEAD_IN_BYTES), batch.sizeInBytes());
+    }
+
+    @Test
+    void shouldCloseBatchWhenNextEventWouldExceedMaxTimeSpan() {
+        LogEventBatch batch = new LogEventBatch(10_000);
+        long now = System.currentTimeMillis();
+
+        assertTrue(batch.tryAdd(event("a", now)));
+        assertTrue(batch.tryAdd(event("b", now - Duration.ofHours(23).toMillis())));
+        assertFalse(batch.tryAdd(event("c", now + Duration.ofHours(2).toMillis())));
+        assertTrue(batch.tryAdd(event("d", now + Duration.ofMinutes(30).toMillis())));
+    }
+
+    @Test
+    void shouldRejectEventLargerThanMaxSize() {
+        LogEvent tooLarge = event("x".repeat(LogEventBatch.MAX_BATCH_SIZE_IN_BYTES), 0);
+
+        assertFalse(LogEventBatch.fitsInBatch(tooLarge));
+        assertFalse(new LogEventBatch(10_000).tryAdd(tooLarge));
+    }
+
+    @Test
+    void shouldCountTheUtf8LengthOfTheMessages() {
+        LogEventBatch batch = new LogEventBatch(10);
+
+        assertTrue(batch.tryAdd(event("a€é😀", 0)));
+
+        assertEquals("a€é😀".getBytes(StandardCharsets.UTF_8).length + LogEventBatch.EVENT_OVERHEAD_IN_BYTES,
+                batch.sizeInBytes());
+    }
+
+    private static LogEvent event(String message, long timestamp) {
+        return LogEvent.formatted(timestamp, message);
+    }
+}
@@ -0,0 +1,51 @@
+package io.quarkiverse.logging.cloudwatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.Level;
+import org.jboss.logmanager.MDC;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class LogRouteTest {
+
+    @AfterEach
+    void clearMdc() {
+        MDC.clear();
+    }
+
+    @Test
+    void shouldMatchCategoryAndSubCategories() {
+        LogRoute route = new LogRoute("audit", List.of("com.acme.audit"), null, null, null);
+
+        assertTrue(route.matches(record("com.acme.audit")));
+        assertTrue(route.matches(record("com.acme.audit.Login")));
+        assertFalse(route.matches(record("com.acme.auditing")));
+        assertFalse(route.matches(record("com.acme")));
+        assertFalse(route.matches(record(null)));
+    }
+
+    @Test
+    void shouldMatchMdcEntry() {
+        LogRoute anyValue = new LogRoute("audit", List.of(), "audit", null, null);
+        LogRoute givenValue = new LogRoute("audit", List.of(), "audit", "true", null);
+
+        assertFalse(anyValue.matches(record("com.acme")));
+
+        MDC.put("audit", "false");
+        assertTrue(anyValue.matches(record("com.acme")));
+        assertFalse(givenValue.matches(record("com.acme")));
+
+        MDC.put("audit", "true");
+        assertTrue(givenValue.matches(record("com.acme")));
+    }
+
+    private static ExtLogRecord record(String loggerName) {
+        ExtLogRecord record = new ExtLogRecord(Level.INFO, "message", LogRouteTest.class.getName());
+        record.setLoggerName(loggerName);
+        return record;
+    }
+}
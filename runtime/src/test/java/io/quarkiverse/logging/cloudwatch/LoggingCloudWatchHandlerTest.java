@@ -4,21 +4,41 @@ import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.LogRecord;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.RandomStringUtils;
 import org.jboss.logmanager.Level;
+import org.jboss.logmanager.MDC;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
 
+import io.quarkiverse.logging.cloudwatch.LoggingCloudWatchConfig.LogStreamDistribution;
+import io.quarkiverse.logging.cloudwatch.format.ElasticCommonSchemaLogFormatter;
+import io.quarkiverse.logging.cloudwatch.format.StackTraceEncoder;
+import io.quarkiverse.logging.cloudwatch.queue.LinkedEventQueue;
+import io.quarkiverse.logging.cloudwatch.queue.MpscRingBuffer;
+import io.quarkiverse.logging.cloudwatch.queue.SpillLog;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.protocols.jsoncore.JsonNode;
 import software.amazon.awssdk.services.cloudwatchlogs.CloudWatchLogsClient;
 import software.amazon.awssdk.services.cloudwatchlogs.model.InputLogEvent;
+import software.amazon.awssdk.services.cloudwatchlogs.model.InvalidParameterException;
 import software.amazon.awssdk.services.cloudwatchlogs.model.PutLogEventsRequest;
 import software.amazon.awssdk.services.cloudwatchlogs.model.PutLogEventsResponse;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
 
 class LoggingCloudWatchHandlerTest {
 
@@ -56,6 +76,24 @@ class LoggingCloudWatchHandlerTest {
         assertTrue(formattedMessage.contains("Progress: 1337%"));
     }
 
+    @Test
+    void shouldLeaveRecordUntouchedWhenFormatting() {
+        LogRecord first = new LogRecord(Level.INFO, "Progress: %s%%");
+        first.setParameters(new Object[] { "42" });
+        LogRecord second = new LogRecord(Level.INFO, "Done");
+        testee.setLevel(Level.INFO);
+
+        String firstMessage = testee.formatMessage(first);
+        String secondMessage = testee.formatMessage(second);
+
+        // The record is shared with the other handlers, its message must not be replaced by the formatted one.
+        assertEquals("Progress: %s%%", first.getMessage());
+        assertTrue(firstMessage.contains("Progress: 42%"));
+        // The reused buffer must not leak anything from the previous record.
+        assertTrue(secondMessage.contains("message\":\"Done"));
+        assertFalse(secondMessage.contains("Progress"));
+    }
+
     @Test
     void shouldBeBelowThresholdWhenBothAreInfo() {
         LogRecord record = new LogRecord(Level.INFO, "someMessage");
@@ -100,12 +138,16 @@ class LoggingCloudWatchHandlerTest {
 
         assertTrue(formattedMessage.length() > 1000);
 
-        LoggingCloudWatchHandler testeeWithMessageLimit = new LoggingCloudWatchHandler(null, null, null, null, Optional.empty(),
-                0, Duration.ofSeconds(5), Optional.empty(), 500);
+        LoggingCloudWatchHandler testeeWithMessageLimit = new LoggingCloudWatchHandler(List.of(), List.of(),
+                LogStreamDistribution.THREAD, AdmissionController.ADMIT_ALL, new LoggingCloudWatchMetrics(),
+                new ElasticCommonSchemaLogFormatter(Optional.empty(), new StackTraceEncoder(0, List.of()), 500),
+                Duration.ofSeconds(5), false, null);
         formattedMessage = testeeWithMessageLimit.formatMessage(record);
 
-        assertEquals(500, formattedMessage.length());
-        assertTrue(formattedMessage.endsWith(" (...)"));
+        assertTrue(formattedMessage.length() <= 500, formattedMessage);
+        assertTrue(formattedMessage.contains(" (...)\","), formattedMessage);
+        // Still a JSON document.
+        JsonNode.parser().parse(formattedMessage);
     }
 
     @Test
@@ -118,16 +160,9 @@ class LoggingCloudWatchHandlerTest {
         when(mockClient.putLogEvents(any(PutLogEventsRequest.class))).thenReturn(mockResponse);
 
         // Create handler with mock client
-        LoggingCloudWatchHandler handler = new LoggingCloudWatchHandler(
-                mockClient,
-                "test-group",
-                "test-stream",
-                "initial-token",
-                Optional.of(100),
-                10,
-                Duration.ofSeconds(1),
-                Optional.empty(),
-                0);
+        LoggingCloudWatchHandler handler = handler(new LogStreamPublisher(mockClient, "test-group", "test-stream",
+                "initial-token", new LinkedEventQueue<>(Optional.of(100)), 10, Duration.ofSeconds(1), 10));
+        handler.start();
         handler.setLevel(Level.INFO);
 
         // Create log record with specific timestamp (1 hour ago)
@@ -175,16 +210,9 @@ class LoggingCloudWatchHandlerTest {
         when(mockClient.putLogEvents(any(PutLogEventsRequest.class))).thenReturn(mockResponse);
 
         // Create handler with mock client and small batch size
-        LoggingCloudWatchHandler handler = new LoggingCloudWatchHandler(
-                mockClient,
-                "test-group",
-                "test-stream",
-                "initial-token",
-                Optional.of(100),
-                10,
-                Duration.ofSeconds(1),
-                Optional.empty(),
-                0);
+        LoggingCloudWatchHandler handler = handler(new LogStreamPublisher(mockClient, "test-group", "test-stream",
+                "initial-token", new LinkedEventQueue<>(Optional.of(100)), 10, Duration.ofSeconds(1), 10));
+        handler.start();
         handler.setLevel(Level.INFO);
 
         // Create log records with timestamps in reverse order
@@ -239,4 +267,463 @@ class LoggingCloudWatchHandlerTest {
         }
         assertTrue(foundEvents, "Expected to find all three published events in sorted order");
     }
+
+    @Test
+    void shouldSendBatchesWithoutWaitingForBatchPeriodWhenDrainThresholdIsReached() throws Exception {
+        CloudWatchLogsClient mockClient = mock(CloudWatchLogsClient.class);
+        AtomicInteger sentEvents = new AtomicInteger();
+        when(mockClient.putLogEvents(any(PutLogEventsRequest.class))).thenAnswer(invocation -> {
+            sentEvents.addAndGet(invocation.<PutLogEventsRequest> getArgument(0).logEvents().size());
+            return PutLogEventsResponse.builder().build();
+        });
+
+        // The batch period is way longer than the test, only the drain threshold can trigger the batches. The batch size
+        // is the threshold, so the drain triggered by the last record sends all of them.
+        LoggingCloudWatchHandler handler = handler(new LogStreamPublisher(mockClient, "test-group", "test-stream", null,
+                new LinkedEventQueue<>(Optional.empty()), 2, Duration.ofHours(1), 2));
+        handler.start();
+        handler.setLevel(Level.INFO);
+        // Let the first scheduled execution of the publisher happen.
+        Thread.sleep(100);
+
+        for (int i = 0; i < 2; i++) {
+            handler.publish(new LogRecord(Level.INFO, "message " + i));
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sentEvents.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, sentEvents.get());
+
+        handler.close();
+    }
+
+    @Test
+    void shouldSpreadEventsAcrossLogStreamsInRoundRobin() {
+        CloudWatchLogsClient mockClient = mock(CloudWatchLogsClient.class);
+        when(mockClient.putLogEvents(any(PutLogEventsRequest.class))).thenReturn(PutLogEventsResponse.builder().build());
+
+        List<LogStreamPublisher> publishers = List.of(
+                new LogStreamPublisher(mockClient, "test-group", "test-stream-0", null,
+                        new LinkedEventQueue<>(Optional.empty()), 10,
+                        Duration.ofHours(1), 10),
+                new LogStreamPublisher(mockClient, "test-group", "test-stream-1", null, new MpscRingBuffer<>(16), 10,
+                        Duration.ofHours(1), 10));
+        LoggingCloudWatchHandler handler = new LoggingCloudWatchHandler(publishers, List.of(),
+                LogStreamDistribution.ROUND_ROBIN, AdmissionController.ADMIT_ALL, new LoggingCloudWatchMetrics(),
+                new ElasticCommonSchemaLogFormatter(Optional.empty()), Duration.ofSeconds(5), false, null);
+        handler.setLevel(Level.INFO);
+
+        for (int i = 0; i < 4; i++) {
+            handler.publish(new LogRecord(Level.INFO, "message " + i));
+        }
+        handler.close();
+
+        ArgumentCaptor<PutLogEventsRequest> requestCaptor = ArgumentCaptor.forClass(PutLogEventsRequest.class);
+        verify(mockClient, atLeastOnce()).putLogEvents(requestCaptor.capture());
+        Map<String, Integer> eventsPerStream = new HashMap<>();
+        for (PutLogEventsRequest request : requestCaptor.getAllValues()) {
+            eventsPerStream.merge(request.logStreamName(), request.logEvents().size(), Integer::sum);
+        }
+        assertEquals(Map.of("test-stream-0", 2, "test-stream-1", 2), eventsPerStream);
+    }
+
+    @Test
+    void shouldSpillEventsToDiskWhileCloudWatchCannotBeReached(@TempDir Path spillDirectory) throws Exception {
+        CloudWatchLogsClient mockClient = mock(CloudWatchLogsClient.class);
+        when(mockClient.putLogEvents(any(PutLogEventsRequest.class)))
+                .thenThrow(SdkClientException.create("Unable to execute HTTP request"))
+                .thenReturn(PutLogEventsResponse.builder().build());
+
+        LoggingCloudWatchMetrics metrics = new LoggingCloudWatchMetrics();
+        LogStreamPublisher publisher = new LogStreamPublisher(
+                new SyncLogEventsSender(mockClient, "test-group", "test-stream", null), "test-stream",
+                new LinkedEventQueue<>(Optional.of(2)), new SpillLog(spillDirectory, 1024 * 1024, 64 * 1024), metrics,
+                RetryEngine.noRetry(10), Duration.ofHours(1), 10);
+
+        // The third event does not fit into the queue.
+        for (int i = 0; i < 3; i++) {
+            assertTrue(publisher.offer(LogEvent.formatted(i, "message " + i)));
+        }
+
+        // The batch fails and is spilled, then sent with the next one.
+        publisher.run();
+        publisher.run();
+        publisher.close(System.nanoTime() + Duration.ofSeconds(5).toNanos());
+
+        ArgumentCaptor<PutLogEventsRequest> requestCaptor = ArgumentCaptor.forClass(PutLogEventsRequest.class);
+        verify(mockClient, times(2)).putLogEvents(requestCaptor.capture());
+        List<String> sentMessages = requestCaptor.getAllValues().get(1).logEvents().stream()
+                .map(InputLogEvent::message)
+                .collect(Collectors.toList());
+        assertEquals(List.of("message 0", "message 1", "message 2"), sentMessages);
+
+        assertEquals(1, metrics.getBatchesFailed());
+        assertEquals(0, metrics.getEventsLost());
+        assertEquals(1, metrics.getBatchesSent());
+        assertEquals(3, metrics.getEventsSent());
+        assertEquals(3 * (9 + LogEventBatch.EVENT_OVERHEAD_IN_BYTES), metrics.getBytesSent());
+        assertEquals(0, metrics.getSpilledQueueSize());
+    }
+
+    @Test
+    void shouldSendTheEventsSpilledBecauseTheQueueWasFullAfterTheQueuedOnes(@TempDir Path spillDirectory)
+            throws Exception {
+        CloudWatchLogsClient mockClient = mock(CloudWatchLogsClient.class);
+        when(mockClient.putLogEvents(any(PutLogEventsRequest.class))).thenReturn(PutLogEventsResponse.builder().build());
+
+        LogStreamPublisher publisher = new LogStreamPublisher(
+                new SyncLogEventsSender(mockClient, "test-group", "test-stream", null), "test-stream",
+                new LinkedEventQueue<>(Optional.of(2)), new SpillLog(spillDirectory, 1024 * 1024, 64 * 1024),
+                new LoggingCloudWatchMetrics(), RetryEngine.noRetry(2), Duration.ofHours(1), 10);
+
+        // The last two events do not fit into the queue.
+        for (int i = 0; i < 4; i++) {
+            assertTrue(publisher.offer(LogEvent.formatted(i, "message " + i)));
+        }
+        publisher.run();
+        publisher.close(System.nanoTime() + Duration.ofSeconds(5).toNanos());
+
+        ArgumentCaptor<PutLogEventsRequest> requestCaptor = ArgumentCaptor.forClass(PutLogEventsRequest.class);
+        verify(mockClient, times(2)).putLogEvents(requestCaptor.capture());
+        List<String> sentMessages = requestCaptor.getAllValues().stream()
+                .flatMap(request -> request.logEvents().stream())
+                .map(InputLogEvent::message)
+                .collect(Collectors.toList());
+        assertEquals(List.of("message 0", "message 1", "message 2", "message 3"), sentMessages);
+    }
+
+    @Test
+    void shouldRetryThrottledBatchAfterBackoff() {
+        CloudWatchLogsClient mockClient = mock(CloudWatchLogsClient.class);
+        when(mockClient.putLogEvents(any(PutLogEventsRequest.class)))
+                .thenThrow(RetryEngineTest.throttlingException())
+                .thenReturn(PutLogEventsResponse.builder().build());
+
+        LoggingCloudWatchMetrics metrics = new LoggingCloudWatchMetrics();
+        LogStreamPublisher publisher = new LogStreamPublisher(
+                new SyncLogEventsSender(mockClient, "test-group", "test-stream", null), "test-stream",
+                new LinkedEventQueue<>(Optional.empty()), null, metrics,
+                new RetryEngine(3, Duration.ofMillis(10), Duration.ofMillis(100), 10, 10), Duration.ofHours(1), 10);
+
+        for (int i = 0; i < 3; i++) {
+            publisher.offer(LogEvent.formatted(i, "message " + i));
+        }
+        publisher.run();
+
+        ArgumentCaptor<PutLogEventsRequest> requestCaptor = ArgumentCaptor.forClass(PutLogEventsRequest.class);
+        verify(mockClient, timeout(5000).times(2)).putLogEvents(requestCaptor.capture());
+        assertEquals(requestCaptor.getAllValues().get(0).logEvents(), requestCaptor.getAllValues().get(1).logEvents());
+        publisher.close(System.nanoTime() + Duration.ofSeconds(5).toNanos());
+
+        assertEquals(1, metrics.getPutLogEventsRetries());
+        assertEquals(0, metrics.getBatchesFailed());
+        assertEquals(3, metrics.getEventsSent());
+    }
+
+    @Test
+    void shouldResumeSendingAfterTheThrottlingPauseWithoutBlockingTheDrain() {
+        CloudWatchLogsClient mockClient = mock(CloudWatchLogsClient.class);
+        when(mockClient.putLogEvents(any(PutLogEventsRequest.class)))
+                .thenThrow(RetryEngineTest.throttlingException())
+                .thenReturn(PutLogEventsResponse.builder().build());
+
+        LoggingCloudWatchMetrics metrics = new LoggingCloudWatchMetrics();
+        LogStreamPublisher publisher = new LogStreamPublisher(
+                new SyncLogEventsSender(mockClient, "test-group", "test-stream", null), "test-stream",
+                new LinkedEventQueue<>(Optional.empty()), null, metrics,
+                new RetryEngine(3, Duration.ofMillis(10), Duration.ofSeconds(10), 10, 10), Duration.ofHours(1), 10);
+
+        for (int i = 0; i < 20; i++) {
+            publisher.offer(LogEvent.formatted(i, "message " + i));
+        }
+        publisher.run();
+
+        // The second batch waits for the pause on the scheduler, not on the thread that sent the first one.
+        verify(mockClient, times(1)).putLogEvents(any(PutLogEventsRequest.class));
+        // The retry of the first batch, then the next batches, smaller while throttled.
+        verify(mockClient, timeout(5000).atLeast(4)).putLogEvents(any(PutLogEventsRequest.class));
+        publisher.close(System.nanoTime() + Duration.ofSeconds(5).toNanos());
+
+        assertEquals(20, metrics.getEventsSent());
+    }
+
+    @Test
+    void shouldDropARejectedBatchAndKeepSendingTheNextOnes() {
+        CloudWatchLogsClient mockClient = mock(CloudWatchLogsClient.class);
+        when(mockClient.putLogEvents(any(PutLogEventsRequest.class)))
+                .thenThrow(InvalidParameterException.builder().statusCode(400).build())
+                .thenReturn(PutLogEventsResponse.builder().build());
+
+        LoggingCloudWatchMetrics metrics = new LoggingCloudWatchMetrics();
+        LogStreamPublisher publisher = new LogStreamPublisher(
+                new SyncLogEventsSender(mockClient, "test-group", "test-stream", null), "test-stream",
+                new LinkedEventQueue<>(Optional.empty()), null, metrics, RetryEngine.noRetry(2), Duration.ofHours(1), 2);
+
+        for (int i = 0; i < 4; i++) {
+            publisher.offer(LogEvent.formatted(i, "message " + i));
+        }
+        publisher.run();
+
+        verify(mockClient, times(2)).putLogEvents(any(PutLogEventsRequest.class));
+        assertEquals(1, metrics.getBatchesFailed());
+        assertEquals(2, metrics.getEventsLost());
+        assertEquals(2, metrics.getEventsSent());
+        publisher.close(System.nanoTime() + Duration.ofSeconds(5).toNanos());
+    }
+
+    @Test
+    void shouldQueueRecordsUntilInitializedInBackground() {
+        CloudWatchLogsClient mockClient = mock(CloudWatchLogsClient.class);
+        when(mockClient.putLogEvents(any(PutLogEventsRequest.class))).thenReturn(PutLogEventsResponse.builder().build());
+
+        DeferredLogEventsSender sender = new DeferredLogEventsSender();
+        LogStreamPublisher publisher = new LogStreamPublisher(sender, "test-stream", new LinkedEventQueue<>(Optional.empty()),
+                10, Duration.ofMillis(50), 2);
+        LoggingCloudWatchHandler handler = handler(publisher);
+        handler.setLevel(Level.INFO);
+
+        for (int i = 0; i < 3; i++) {
+            handler.publish(new LogRecord(Level.INFO, "message " + i));
+        }
+        verifyNoInteractions(mockClient);
+
+        sender.ready(new SyncLogEventsSender(mockClient, "test-group", "test-stream", null));
+        handler.start();
+
+        ArgumentCaptor<PutLogEventsRequest> requestCaptor = ArgumentCaptor.forClass(PutLogEventsRequest.class);
+        verify(mockClient, timeout(5000)).putLogEvents(requestCaptor.capture());
+        assertEquals(3, requestCaptor.getValue().logEvents().size());
+        handler.close();
+    }
+
+    @Test
+    void shouldInterruptTheInitializationAndNotStartOnceClosed() throws Exception {
+        LogStreamPublisher publisher = mock(LogStreamPublisher.class);
+        LoggingCloudWatchHandler handler = handler(publisher);
+        CountDownLatch initializing = new CountDownLatch(1);
+        CompletableFuture<Boolean> interrupted = new CompletableFuture<>();
+
+        handler.initializeInBackground(() -> {
+            initializing.countDown();
+            try {
+                // Like a client waiting for CloudWatch.
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                interrupted.complete(false);
+            } catch (InterruptedException e) {
+                interrupted.complete(true);
+            }
+            handler.start();
+        });
+        assertTrue(initializing.await(5, TimeUnit.SECONDS));
+        handler.close();
+
+        assertTrue(interrupted.get(5, TimeUnit.SECONDS));
+        verify(publisher, never()).start();
+
+        // Closed before it was even initialized.
+        handler.initializeInBackground(() -> fail("Initialized once closed"));
+        handler.start();
+        verify(publisher, never()).start();
+    }
+
+    @Test
+    void shouldFlushTheWholeQueueInSeveralBatches() throws Exception {
+        CloudWatchLogsClient mockClient = mock(CloudWatchLogsClient.class);
+        when(mockClient.putLogEvents(any(PutLogEventsRequest.class))).thenReturn(PutLogEventsResponse.builder().build());
+        LogStreamPublisher publisher = new LogStreamPublisher(
+                new SyncLogEventsSender(mockClient, "test-group", "test-stream", null), "test-stream",
+                new LinkedEventQueue<>(Optional.empty()), 10, Duration.ofHours(1), 1000);
+        LoggingCloudWatchHandler handler = handler(publisher);
+        handler.setLevel(Level.INFO);
+        handler.start();
+
+        for (int i = 0; i < 25; i++) {
+            handler.publish(new LogRecord(Level.INFO, "message " + i));
+        }
+        handler.flushAsync().get(5, TimeUnit.SECONDS);
+
+        // The first scheduled run may have sent some of them already.
+        ArgumentCaptor<PutLogEventsRequest> requestCaptor = ArgumentCaptor.forClass(PutLogEventsRequest.class);
+        verify(mockClient, atLeast(3)).putLogEvents(requestCaptor.capture());
+        assertEquals(25, requestCaptor.getAllValues().stream().mapToInt(request -> request.logEvents().size()).sum());
+        assertTrue(requestCaptor.getAllValues().stream().allMatch(request -> request.logEvents().size() <= 10));
+        assertEquals(0, publisher.queueSize());
+        handler.close();
+    }
+
+    @Test
+    void shouldNeverReachTheAbsentDeadline() {
+        assertFalse(LogStreamPublisher.isReached(LogStreamPublisher.NO_DEADLINE));
+        assertFalse(LogStreamPublisher.isReached(System.nanoTime() + TimeUnit.HOURS.toNanos(1)));
+        assertTrue(LogStreamPublisher.isReached(System.nanoTime()));
+    }
+
+    @Test
+    void shouldSendAllTheRemainingEventsWhenClosed() {
+        CloudWatchLogsClient mockClient = mock(CloudWatchLogsClient.class);
+        when(mockClient.putLogEvents(any(PutLogEventsRequest.class))).thenReturn(PutLogEventsResponse.builder().build());
+        LogStreamPublisher publisher = new LogStreamPublisher(
+                new SyncLogEventsSender(mockClient, "test-group", "test-stream", null), "test-stream",
+                new LinkedEventQueue<>(Optional.empty()), 10, Duration.ofHours(1), 1000);
+
+        for (int i = 0; i < 25; i++) {
+            publisher.offer(LogEvent.formatted(i, "message " + i));
+        }
+        publisher.close(System.nanoTime() + Duration.ofSeconds(5).toNanos());
+
+        ArgumentCaptor<PutLogEventsRequest> requestCaptor = ArgumentCaptor.forClass(PutLogEventsRequest.class);
+        verify(mockClient, times(3)).putLogEvents(requestCaptor.capture());
+        assertEquals(25, requestCaptor.getAllValues().stream().mapToInt(request -> request.logEvents().size()).sum());
+    }
+
+    @Test
+    void shouldCloseTheClientAndCredentialsProviderWithTheHandler() {
+        CloudWatchLogsClient mockClient = mock(CloudWatchLogsClient.class);
+        SdkAutoCloseable credentialsProvider = mock(SdkAutoCloseable.class);
+        LogStreamPublisher publisher = new LogStreamPublisher(
+                new SyncLogEventsSender(mockClient, "test-group", "test-stream", null), "test-stream",
+                new LinkedEventQueue<>(Optional.empty()), 10, Duration.ofHours(1), 1000);
+        LoggingCloudWatchHandler handler = handler(publisher);
+        handler.closeOnShutdown(mockClient);
+        handler.closeOnShutdown(credentialsProvider);
+
+        handler.close();
+        verify(mockClient).close();
+        verify(credentialsProvider).close();
+
+        // Initialized in the background after the handler was closed.
+        SdkAutoCloseable late = mock(SdkAutoCloseable.class);
+        handler.closeOnShutdown(late);
+        verify(late).close();
+    }
+
+    @Test
+    void shouldSpillTheRemainingEventsOnceTheShutdownTimeoutExpired(@TempDir Path spillDirectory) throws Exception {
+        LogEventsSender neverCompletingSender = events -> new CompletableFuture<>();
+        LogStreamPublisher publisher = new LogStreamPublisher(neverCompletingSender, "test-stream",
+                new LinkedEventQueue<>(Optional.empty()), new SpillLog(spillDirectory, 1024 * 1024, 64 * 1024),
+                new LoggingCloudWatchMetrics(), RetryEngine.noRetry(10), Duration.ofHours(1), 1000);
+
+        for (int i = 0; i < 25; i++) {
+            publisher.offer(LogEvent.formatted(i, "message " + i));
+        }
+        publisher.close(System.nanoTime());
+
+        try (SpillLog spillLog = new SpillLog(spillDirectory, 1024 * 1024, 64 * 1024)) {
+            assertEquals(25, spillLog.size());
+        }
+    }
+
+    @Test
+    void shouldSendRoutedRecordsToTheirOwnLogStream() {
+        CloudWatchLogsClient mockClient = mock(CloudWatchLogsClient.class);
+        when(mockClient.putLogEvents(any(PutLogEventsRequest.class))).thenReturn(PutLogEventsResponse.builder().build());
+        LogStreamPublisher publisher = new LogStreamPublisher(
+                new SyncLogEventsSender(mockClient, "test-group", "test-stream", null), "test-stream",
+                new LinkedEventQueue<>(Optional.empty()), 10, Duration.ofHours(1), 1000);
+        LogStreamPublisher auditPublisher = new LogStreamPublisher(
+                new SyncLogEventsSender(mockClient, "audit-group", "audit-stream", null), "audit-stream",
+                new LinkedEventQueue<>(Optional.empty()), 10, Duration.ofHours(1), 1000);
+        LoggingCloudWatchHandler handler = new LoggingCloudWatchHandler(List.of(publisher),
+                List.of(new LogRoute("audit", List.of("com.acme.audit"), null, null, auditPublisher)),
+                LogStreamDistribution.THREAD, AdmissionController.ADMIT_ALL, new LoggingCloudWatchMetrics(),
+                new ElasticCommonSchemaLogFormatter(Optional.empty()), Duration.ofSeconds(5), false, null);
+        handler.setLevel(Level.INFO);
+        handler.start();
+
+        LogRecord auditRecord = new LogRecord(Level.INFO, "login");
+        auditRecord.setLoggerName("com.acme.audit.Login");
+        handler.publish(auditRecord);
+        LogRecord otherRecord = new LogRecord(Level.INFO, "request");
+        otherRecord.setLoggerName("com.acme.Resource");
+        handler.publish(otherRecord);
+        handler.close();
+
+        ArgumentCaptor<PutLogEventsRequest> requestCaptor = ArgumentCaptor.forClass(PutLogEventsRequest.class);
+        verify(mockClient, times(2)).putLogEvents(requestCaptor.capture());
+        Map<String, String> messagePerStream = requestCaptor.getAllValues().stream()
+                .collect(Collectors.toMap(request -> request.logGroupName() + "/" + request.logStreamName(),
+                        request -> request.logEvents().get(0).message()));
+        assertTrue(messagePerStream.get("audit-group/audit-stream").contains("login"));
+        assertTrue(messagePerStream.get("test-group/test-stream").contains("request"));
+    }
+
+    @Test
+    void shouldFormatDeferredRecordsOnThePublisherSide() {
+        CloudWatchLogsClient mockClient = mock(CloudWatchLogsClient.class);
+        when(mockClient.putLogEvents(any(PutLogEventsRequest.class))).thenReturn(PutLogEventsResponse.builder().build());
+        LogStreamPublisher publisher = new LogStreamPublisher(
+                new SyncLogEventsSender(mockClient, "test-group", "test-stream", null), "test-stream",
+                new LinkedEventQueue<>(Optional.empty()), 10_000, Duration.ofHours(1), 10_000);
+        LoggingCloudWatchHandler handler = new LoggingCloudWatchHandler(List.of(publisher), List.of(),
+                LogStreamDistribution.THREAD, AdmissionController.ADMIT_ALL, new LoggingCloudWatchMetrics(),
+                new ElasticCommonSchemaLogFormatter(Optional.empty()), Duration.ofSeconds(5), true, null);
+        handler.setLevel(Level.INFO);
+        handler.start();
+
+        // Enough records to be formatted in parallel.
+        int count = LogStreamPublisher.PARALLEL_FORMATTING_THRESHOLD + 10;
+        for (int i = 0; i < count; i++) {
+            MDC.put("request.id", String.valueOf(i));
+            LogRecord record = new LogRecord(Level.INFO, "message %d");
+            record.setParameters(new Object[] { i });
+            record.setInstant(Instant.ofEpochMilli(i));
+            handler.publish(record);
+        }
+        MDC.remove("request.id");
+        LogRecord invalid = new LogRecord(Level.INFO, "invalid %d");
+        invalid.setParameters(new Object[] { "not a number" });
+        invalid.setInstant(Instant.ofEpochMilli(count));
+        handler.publish(invalid);
+        handler.close();
+
+        ArgumentCaptor<PutLogEventsRequest> requestCaptor = ArgumentCaptor.forClass(PutLogEventsRequest.class);
+        verify(mockClient, atLeastOnce()).putLogEvents(requestCaptor.capture());
+        List<InputLogEvent> events = requestCaptor.getAllValues().stream()
+                .flatMap(request -> request.logEvents().stream())
+                .collect(Collectors.toList());
+        assertEquals(count + 1, events.size());
+        for (int i = 0; i < count; i++) {
+            // The MDC is the one of the thread when the record was logged.
+            assertTrue(events.get(i).message().contains("\"message\":\"message " + i + "\""), events.get(i).message());
+            assertTrue(events.get(i).message().contains("\"request.id\":\"" + i + "\""), events.get(i).message());
+        }
+        // The template is sent as is when it can't be formatted.
+        assertTrue(events.get(count).message().contains("\"message\":\"invalid %d\""), events.get(count).message());
+    }
+
+    @Test
+    void shouldFormatDeferredRecordsWithTheParametersTheyWereLoggedWith() {
+        CloudWatchLogsClient mockClient = mock(CloudWatchLogsClient.class);
+        when(mockClient.putLogEvents(any(PutLogEventsRequest.class))).thenReturn(PutLogEventsResponse.builder().build());
+        LogStreamPublisher publisher = new LogStreamPublisher(
+                new SyncLogEventsSender(mockClient, "test-group", "test-stream", null), "test-stream",
+                new LinkedEventQueue<>(Optional.empty()), 10_000, Duration.ofHours(1), 10_000);
+        LoggingCloudWatchHandler handler = new LoggingCloudWatchHandler(List.of(publisher), List.of(),
+                LogStreamDistribution.THREAD, AdmissionController.ADMIT_ALL, new LoggingCloudWatchMetrics(),
+                new ElasticCommonSchemaLogFormatter(Optional.empty()), Duration.ofSeconds(5), true, null);
+        handler.setLevel(Level.INFO);
+        handler.start();
+
+        StringBuilder state = new StringBuilder("before");
+        LogRecord record = new LogRecord(Level.INFO, "state %s, count %d");
+        record.setParameters(new Object[] { state, 1 });
+        handler.publish(record);
+        state.replace(0, state.length(), "after");
+        record.getParameters()[1] = 2;
+        handler.close();
+
+        ArgumentCaptor<PutLogEventsRequest> requestCaptor = ArgumentCaptor.forClass(PutLogEventsRequest.class);
+        verify(mockClient).putLogEvents(requestCaptor.capture());
+        String message = requestCaptor.getValue().logEvents().get(0).message();
+        assertTrue(message.contains("\"message\":\"state before, count 1\""), message);
+    }
+
+    private static LoggingCloudWatchHandler handler(LogStreamPublisher publisher) {
+        return new LoggingCloudWatchHandler(List.of(publisher), List.of(), LogStreamDistribution.THREAD,
+                AdmissionController.ADMIT_ALL, new LoggingCloudWatchMetrics(),
+                new ElasticCommonSchemaLogFormatter(Optional.empty()), Duration.ofSeconds(5), false, null);
+    }
 }
@@ -0,0 +1,72 @@
+package io.quarkiverse.logging.cloudwatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.cloudwatchlogs.CloudWatchLogsAsyncClient;
+import software.amazon.awssdk.services.cloudwatchlogs.CloudWatchLogsClient;
+import software.amazon.awssdk.services.cloudwatchlogs.model.AccessDeniedException;
+import software.amazon.awssdk.services.cloudwatchlogs.model.CloudWatchLogsException;
+import software.amazon.awssdk.services.cloudwatchlogs.model.CreateLogStreamRequest;
+import software.amazon.awssdk.services.cloudwatchlogs.model.InvalidParameterException;
+import software.amazon.awssdk.services.cloudwatchlogs.model.ResourceAlreadyExistsException;
+
+class LoggingCloudWatchHandlerValueFactoryTest {
+
+    @Test
+    void shouldCreateTheLogStream() {
+        CloudWatchLogsClient client = mock(CloudWatchLogsClient.class);
+
+        LoggingCloudWatchHandlerValueFactory.createLogStream(client::createLogStream, "group", "stream");
+
+        verify(client).createLogStream(CreateLogStreamRequest.builder().logGroupName("group").logStreamName("stream")
+                .build());
+    }
+
+    @Test
+    void shouldAcceptAnExistingLogStream() {
+        CloudWatchLogsClient client = mock(CloudWatchLogsClient.class);
+        when(client.createLogStream(any(CreateLogStreamRequest.class)))
+                .thenThrow(ResourceAlreadyExistsException.builder().message("exists").build());
+
+        assertDoesNotThrow(
+                () -> LoggingCloudWatchHandlerValueFactory.createLogStream(client::createLogStream, "group", "stream"));
+    }
+
+    @Test
+    void shouldAssumeAPreCreatedLogStreamWithoutThePermissionToCreateIt() {
+        // Only PutLogEvents is granted, on a log stream created beforehand.
+        CloudWatchLogsClient client = mock(CloudWatchLogsClient.class);
+        when(client.createLogStream(any(CreateLogStreamRequest.class)))
+                .thenThrow(AccessDeniedException.builder().message("denied").build())
+                .thenThrow(CloudWatchLogsException.builder().statusCode(400)
+                        .awsErrorDetails(AwsErrorDetails.builder().errorCode("AccessDeniedException").build())
+                        .build());
+        CloudWatchLogsAsyncClient asyncClient = mock(CloudWatchLogsAsyncClient.class);
+        when(asyncClient.createLogStream(any(CreateLogStreamRequest.class))).thenReturn(
+                CompletableFuture.failedFuture(AccessDeniedException.builder().message("denied").build()));
+
+        assertDoesNotThrow(
+                () -> LoggingCloudWatchHandlerValueFactory.createLogStream(client::createLogStream, "group", "stream"));
+        assertDoesNotThrow(
+                () -> LoggingCloudWatchHandlerValueFactory.createLogStream(client::createLogStream, "group", "stream"));
+        assertDoesNotThrow(() -> LoggingCloudWatchHandlerValueFactory.createLogStream(
+                request -> asyncClient.createLogStream(request).join(), "group", "stream"));
+    }
+
+    @Test
+    void shouldFailOnOtherErrors() {
+        CloudWatchLogsClient client = mock(CloudWatchLogsClient.class);
+        when(client.createLogStream(any(CreateLogStreamRequest.class)))
+                .thenThrow(InvalidParameterException.builder().message("invalid").build());
+
+        assertThrows(InvalidParameterException.class,
+                () -> LoggingCloudWatchHandlerValueFactory.createLogStream(client::createLogStream, "group", "stream"));
+    }
+}
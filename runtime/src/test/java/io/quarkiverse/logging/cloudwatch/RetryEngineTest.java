@@ -0,0 +1,107 @@
+package io.quarkiverse.logging.cloudwatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+
+import org.junit.jupiter.api.Test;
+
+import io.quarkiverse.logging.cloudwatch.RetryEngine.ErrorClass;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.cloudwatchlogs.model.CloudWatchLogsException;
+import software.amazon.awssdk.services.cloudwatchlogs.model.InvalidParameterException;
+import software.amazon.awssdk.services.cloudwatchlogs.model.ServiceUnavailableException;
+
+class RetryEngineTest {
+
+    @Test
+    void shouldClassifyErrors() {
+        assertEquals(ErrorClass.THROTTLING, RetryEngine.classify(throttlingException()));
+        assertEquals(ErrorClass.SERVER_ERROR,
+                RetryEngine.classify(ServiceUnavailableException.builder().statusCode(503).build()));
+        assertEquals(ErrorClass.NETWORK, RetryEngine.classify(ApiCallTimeoutException.create(1000)));
+        assertEquals(ErrorClass.NETWORK,
+                RetryEngine.classify(new CompletionException(SdkClientException.create("Unable to execute HTTP request",
+                        new SocketTimeoutException()))));
+        assertEquals(ErrorClass.NOT_RETRYABLE,
+                RetryEngine.classify(InvalidParameterException.builder().statusCode(400).build()));
+        assertEquals(ErrorClass.NOT_RETRYABLE, RetryEngine.classify(new IllegalStateException()));
+    }
+
+    @Test
+    void shouldBackOffExponentiallyWithJitter() {
+        RetryEngine testee = new RetryEngine(10, Duration.ofMillis(100), Duration.ofSeconds(1), 1000, 100);
+
+        for (int i = 0; i < 100; i++) {
+            long first = testee.onFailure(ErrorClass.SERVER_ERROR, 0);
+            assertTrue(first >= 0 && first <= 100, "first: " + first);
+            long third = testee.onFailure(ErrorClass.SERVER_ERROR, 2);
+            assertTrue(third >= 0 && third <= 400, "third: " + third);
+            long capped = testee.onFailure(ErrorClass.SERVER_ERROR, 9);
+            assertTrue(capped >= 0 && capped <= 1000, "capped: " + capped);
+        }
+    }
+
+    @Test
+    void shouldNotRetryBeyondMaxRetriesOrNotRetryableErrors() {
+        RetryEngine testee = new RetryEngine(3, Duration.ofMillis(100), Duration.ofSeconds(1), 1000, 100);
+
+        assertTrue(testee.onFailure(ErrorClass.NETWORK, 2) >= 0);
+        assertEquals(-1, testee.onFailure(ErrorClass.NETWORK, 3));
+        assertEquals(-1, testee.onFailure(ErrorClass.NOT_RETRYABLE, 0));
+    }
+
+    @Test
+    void shouldKeepASeparateRetryBudgetPerErrorClass() {
+        RetryEngine testee = new RetryEngine(10, Duration.ofMillis(100), Duration.ofSeconds(1), 2, 100);
+
+        assertTrue(testee.onFailure(ErrorClass.NETWORK, 0) >= 0);
+        assertTrue(testee.onFailure(ErrorClass.NETWORK, 0) >= 0);
+        assertEquals(-1, testee.onFailure(ErrorClass.NETWORK, 0));
+        assertTrue(testee.onFailure(ErrorClass.SERVER_ERROR, 0) >= 0);
+
+        // A batch sent gives one retry back.
+        testee.onSuccess();
+        assertTrue(testee.onFailure(ErrorClass.NETWORK, 0) >= 0);
+        assertEquals(-1, testee.onFailure(ErrorClass.NETWORK, 0));
+    }
+
+    @Test
+    void shouldSlowDownWhileThrottled() {
+        RetryEngine testee = new RetryEngine(10, Duration.ofMillis(100), Duration.ofSeconds(1), 1000, 100);
+
+        testee.onFailure(ErrorClass.THROTTLING, 0);
+        assertEquals(50, testee.batchSize());
+        assertEquals(50, testee.pauseMillis());
+        testee.onFailure(ErrorClass.THROTTLING, 1);
+        assertEquals(25, testee.batchSize());
+        assertEquals(100, testee.pauseMillis());
+        // Retries of a throttled batch don't come sooner than the pause.
+        assertTrue(testee.onFailure(ErrorClass.THROTTLING, 0) >= 200);
+
+        for (int i = 0; i < 10; i++) {
+            testee.onSuccess();
+        }
+        assertEquals(100, testee.batchSize());
+        assertEquals(0, testee.pauseMillis());
+    }
+
+    @Test
+    void shouldNeverRetryWithNoRetry() {
+        RetryEngine testee = RetryEngine.noRetry(100);
+
+        assertEquals(-1, testee.onFailure(ErrorClass.NETWORK, 0));
+        assertEquals(-1, testee.onFailure(ErrorClass.THROTTLING, 0));
+    }
+
+    static CloudWatchLogsException throttlingException() {
+        return (CloudWatchLogsException) CloudWatchLogsException.builder()
+                .statusCode(400)
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode("ThrottlingException").build())
+                .build();
+    }
+}
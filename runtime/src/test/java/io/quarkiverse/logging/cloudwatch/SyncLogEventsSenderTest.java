@@ -0,0 +1,58 @@
+package io.quarkiverse.logging.cloudwatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import software.amazon.awssdk.services.cloudwatchlogs.CloudWatchLogsClient;
+import software.amazon.awssdk.services.cloudwatchlogs.model.InputLogEvent;
+import software.amazon.awssdk.services.cloudwatchlogs.model.InvalidSequenceTokenException;
+import software.amazon.awssdk.services.cloudwatchlogs.model.PutLogEventsRequest;
+import software.amazon.awssdk.services.cloudwatchlogs.model.PutLogEventsResponse;
+
+class SyncLogEventsSenderTest {
+
+    private final List<InputLogEvent> events = List.of(InputLogEvent.builder().message("message").timestamp(0L).build());
+
+    @Test
+    void shouldSendEachBatchWithASingleCallWithoutSequenceToken() {
+        CloudWatchLogsClient mockClient = mock(CloudWatchLogsClient.class);
+        when(mockClient.putLogEvents(any(PutLogEventsRequest.class)))
+                .thenReturn(PutLogEventsResponse.builder().nextSequenceToken("ignored").build());
+
+        SyncLogEventsSender sender = new SyncLogEventsSender(mockClient, "test-group", "test-stream", false, null,
+                new LoggingCloudWatchMetrics());
+        sender.send(events).toCompletableFuture().join();
+        sender.send(events).toCompletableFuture().join();
+
+        ArgumentCaptor<PutLogEventsRequest> requestCaptor = ArgumentCaptor.forClass(PutLogEventsRequest.class);
+        verify(mockClient, times(2)).putLogEvents(requestCaptor.capture());
+        for (PutLogEventsRequest request : requestCaptor.getAllValues()) {
+            assertNull(request.sequenceToken());
+        }
+    }
+
+    @Test
+    void shouldRetryWithExpectedSequenceToken() {
+        CloudWatchLogsClient mockClient = mock(CloudWatchLogsClient.class);
+        when(mockClient.putLogEvents(any(PutLogEventsRequest.class)))
+                .thenThrow(InvalidSequenceTokenException.builder().expectedSequenceToken("expected").build())
+                .thenReturn(PutLogEventsResponse.builder().nextSequenceToken("next").build());
+
+        LoggingCloudWatchMetrics metrics = new LoggingCloudWatchMetrics();
+        SyncLogEventsSender sender = new SyncLogEventsSender(mockClient, "test-group", "test-stream", true, "outdated",
+                metrics);
+        sender.send(events).toCompletableFuture().join();
+
+        ArgumentCaptor<PutLogEventsRequest> requestCaptor = ArgumentCaptor.forClass(PutLogEventsRequest.class);
+        verify(mockClient, times(2)).putLogEvents(requestCaptor.capture());
+        assertEquals("outdated", requestCaptor.getAllValues().get(0).sequenceToken());
+        assertEquals("expected", requestCaptor.getAllValues().get(1).sequenceToken());
+        assertEquals(1, metrics.getPutLogEventsRetries());
+    }
+}
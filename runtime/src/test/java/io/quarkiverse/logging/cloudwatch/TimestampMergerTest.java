@@ -0,0 +1,65 @@
+package io.quarkiverse.logging.cloudwatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+class TimestampMergerTest {
+
+    @Test
+    void shouldKeepEventsAddedInOrder() {
+        TimestampMerger merger = new TimestampMerger(4);
+        merger.add(1, 1);
+        merger.add(2, 2);
+        merger.add(2, 1);
+        merger.add(5, 3);
+
+        assertTrue(merger.isOrdered());
+        assertArrayEquals(new int[] { 0, 1, 2, 3 }, merger.order());
+    }
+
+    @Test
+    void shouldMergeTheRunsOfInterleavedProducers() {
+        TimestampMerger merger = new TimestampMerger(4);
+        merger.add(10, 1);
+        merger.add(5, 2);
+        merger.add(11, 1);
+        merger.add(6, 2);
+        merger.add(10, 3);
+
+        assertFalse(merger.isOrdered());
+        // Events with the same timestamp keep the order they were added in.
+        assertArrayEquals(new int[] { 1, 3, 0, 4, 2 }, merger.order());
+    }
+
+    @Test
+    void shouldOrderLikeAStableSortWhateverTheProducers() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            int size = 1 + random.nextInt(2000);
+            int producerCount = 1 + random.nextInt(100);
+            long[] timestamps = new long[size];
+            long[] clocks = new long[producerCount];
+            // Initial capacity below the size, so that the merger grows.
+            TimestampMerger merger = new TimestampMerger(16);
+            for (int i = 0; i < size; i++) {
+                int producer = random.nextInt(producerCount);
+                // Timestamps mostly go forward for each producer, but sometimes go back.
+                clocks[producer] += random.nextInt(10) - (random.nextInt(20) == 0 ? 50 : 0);
+                timestamps[i] = clocks[producer];
+                merger.add(timestamps[i], producer);
+            }
+
+            int[] expected = IntStream.range(0, size).boxed()
+                    .sorted(Comparator.comparingLong(i -> timestamps[i]))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            assertArrayEquals(expected, merger.order(), () -> Arrays.toString(timestamps));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package io.quarkiverse.logging.cloudwatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import software.amazon.awssdk.services.cloudwatchlogs.model.InputLogEvent;
+
+class VirtualThreadLogEventsSenderTest {
+
+    private static final List<InputLogEvent> EVENTS = List
+            .of(InputLogEvent.builder().message("message").timestamp(0L).build());
+
+    @Test
+    void shouldSendBatchesConcurrentlyUpToTheLimit() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        LogEventsSender blockingSender = events -> {
+            calls.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return CompletableFuture.completedFuture(null);
+        };
+        VirtualThreadLogEventsSender sender = new VirtualThreadLogEventsSender(blockingSender, "test-stream", 2);
+
+        // The first two batches are handed over without waiting for their responses.
+        CompletionStage<Void> first = sender.send(EVENTS);
+        CompletionStage<Void> second = sender.send(EVENTS);
+
+        // The third one has to wait until one of them is done.
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<CompletionStage<Void>> thirdSend = executor.submit(() -> sender.send(EVENTS));
+        assertThrows(TimeoutException.class, () -> thirdSend.get(200, TimeUnit.MILLISECONDS));
+        assertEquals(2, calls.get());
+
+        release.countDown();
+        first.toCompletableFuture().get(5, TimeUnit.SECONDS);
+        second.toCompletableFuture().get(5, TimeUnit.SECONDS);
+        thirdSend.get(5, TimeUnit.SECONDS).toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertEquals(3, calls.get());
+
+        sender.close(Duration.ofSeconds(5));
+        executor.shutdown();
+    }
+
+    @Test
+    void shouldReportFailures() {
+        IllegalStateException failure = new IllegalStateException("Failure");
+        VirtualThreadLogEventsSender sender = new VirtualThreadLogEventsSender(
+                events -> CompletableFuture.failedFuture(failure), "test-stream", 1);
+
+        CompletableFuture<Void> result = sender.send(EVENTS).toCompletableFuture();
+
+        Exception thrown = assertThrows(Exception.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertSame(failure, thrown.getCause());
+        // The permit was given back.
+        assertDoesNotThrow(() -> sender.send(EVENTS));
+        sender.close(Duration.ofSeconds(5));
+    }
+}
@@ -0,0 +1,28 @@
+package io.quarkiverse.logging.cloudwatch.auth;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+
+import io.quarkiverse.logging.cloudwatch.LoggingCloudWatchConfig;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+
+class CloudWatchCredentialsProviderTest {
+
+    @Test
+    void shouldProvideTheAccessKeyOfTheConfiguration() {
+        LoggingCloudWatchConfig config = mock(LoggingCloudWatchConfig.class);
+        when(config.defaultCredentialsProviderEnabled()).thenReturn(false);
+        when(config.accessKeyId()).thenReturn(Optional.of("key-id"));
+        when(config.accessKeySecret()).thenReturn(Optional.of("key-secret"));
+
+        try (CloudWatchCredentialsProvider provider = new CloudWatchCredentialsProvider(config)) {
+            AwsCredentials credentials = provider.resolveCredentials();
+            assertEquals("key-id", credentials.accessKeyId());
+            assertEquals("key-secret", credentials.secretAccessKey());
+        }
+    }
+}
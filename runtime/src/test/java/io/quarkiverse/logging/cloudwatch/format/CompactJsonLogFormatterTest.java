@@ -0,0 +1,82 @@
+package io.quarkiverse.logging.cloudwatch.format;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.Level;
+import org.jboss.logmanager.MDC;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import software.amazon.awssdk.protocols.jsoncore.JsonNode;
+
+class CompactJsonLogFormatterTest {
+
+    private final CompactJsonLogFormatter testee = new CompactJsonLogFormatter(Optional.of("prod"),
+            new StackTraceEncoder(0, List.of()), 0);
+
+    @AfterEach
+    void clearMdc() {
+        MDC.clear();
+    }
+
+    @Test
+    void shouldFormatShortFieldsOnASingleLine() {
+        ExtLogRecord record = record("a \"quoted\" message");
+
+        assertEquals("{\"level\":\"INFO\",\"message\":\"a \\\"quoted\\\" message\",\"env\":\"prod\",\"thread\":\""
+                + Thread.currentThread().getName() + "\",\"logger\":\"com.acme.Logger\"}", testee.format(record));
+    }
+
+    @Test
+    void shouldIncludeMdcAndThrowable() {
+        MDC.put("request.id", "42");
+        ExtLogRecord record = record("message");
+        record.setThrown(new IllegalStateException("boom"));
+
+        String formatted = testee.format(record);
+
+        assertFalse(formatted.contains("\n"), formatted);
+        JsonNode document = JsonNode.parser().parse(formatted);
+        assertEquals("42", document.field("request.id").get().asString());
+        assertEquals(IllegalStateException.class.getName(), document.field("error.type").get().asString());
+        assertTrue(document.field("error.stack_trace").get().asString().startsWith(
+                IllegalStateException.class.getName() + ": boom\n"));
+    }
+
+    @Test
+    void shouldBeSmallerThanTheEcsDocument() {
+        ExtLogRecord record = record("message");
+
+        String compact = testee.format(record);
+        String ecs = new ElasticCommonSchemaLogFormatter(Optional.of("prod")).format(record);
+
+        assertTrue(compact.length() * 3 < ecs.length() * 2, compact + " " + ecs);
+    }
+
+    @Test
+    void shouldTruncateTheStackTraceFirstAndKeepTheDocumentValid() {
+        CompactJsonLogFormatter formatter = new CompactJsonLogFormatter(Optional.empty(),
+                new StackTraceEncoder(0, List.of()), 500);
+        ExtLogRecord record = record("message");
+        record.setThrown(new IllegalStateException("boom", new IllegalArgumentException("cause")));
+
+        String formatted = formatter.format(record);
+
+        assertTrue(formatted.length() <= 500, formatted);
+        JsonNode document = JsonNode.parser().parse(formatted);
+        assertEquals("message", document.field("message").get().asString());
+        assertTrue(document.field("error.stack_trace").get().asString().endsWith(AbstractLogFormatter.TRUNCATED_TAG));
+    }
+
+    private static ExtLogRecord record(String message) {
+        ExtLogRecord record = new ExtLogRecord(Level.INFO, message, CompactJsonLogFormatterTest.class.getName());
+        record.setLoggerName("com.acme.Logger");
+        record.setThreadName(Thread.currentThread().getName());
+        record.setLongThreadID(Thread.currentThread().getId());
+        return record;
+    }
+}
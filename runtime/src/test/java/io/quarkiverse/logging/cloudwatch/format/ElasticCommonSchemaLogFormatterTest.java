@@ -0,0 +1,142 @@
+package io.quarkiverse.logging.cloudwatch.format;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.Level;
+import org.jboss.logmanager.MDC;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import co.elastic.logging.EcsJsonSerializer;
+import software.amazon.awssdk.protocols.jsoncore.JsonNode;
+
+class ElasticCommonSchemaLogFormatterTest {
+
+    private final ElasticCommonSchemaLogFormatter testee = new ElasticCommonSchemaLogFormatter(Optional.of("prod \"eu\""));
+
+    @AfterEach
+    void clearMdc() {
+        MDC.clear();
+    }
+
+    @Test
+    void shouldFormatLikeEcsJsonSerializer() {
+        ExtLogRecord record = record("a \"quoted\" message", "com.acme.Logger\t1");
+        record.setThrown(new IllegalStateException("boom"));
+
+        assertEquals(expected(record, "prod \"eu\""), testee.format(record));
+        // Second time from the caches.
+        assertEquals(expected(record, "prod \"eu\""), testee.format(record));
+    }
+
+    @Test
+    void shouldIncludeMdcOfTheLoggingThread() {
+        MDC.put("request.id", "42");
+        MDC.put("user", "jo\"hn");
+        ExtLogRecord record = record("message", "com.acme.Logger");
+
+        String formatted = testee.format(record);
+
+        assertEquals(expected(record, "prod \"eu\""), formatted);
+        assertTrue(formatted.contains("\"request.id\":\"42\","), formatted);
+    }
+
+    @Test
+    void shouldIncludeMdcCapturedByTheRecordWhenFormattedOnAnotherThread() {
+        MDC.put("request.id", "42");
+        ExtLogRecord record = record("message", "com.acme.Logger");
+        record.copyAll();
+        MDC.clear();
+        record.setLongThreadID(Thread.currentThread().getId() + 1);
+
+        String formatted = testee.format(record);
+
+        assertTrue(formatted.contains("\"request.id\":\"42\""), formatted);
+    }
+
+    @Test
+    void shouldFormatNamesBeyondTheCacheCapacity() {
+        ElasticCommonSchemaLogFormatter formatter = new ElasticCommonSchemaLogFormatter(Optional.empty());
+        for (int i = 0; i < ElasticCommonSchemaLogFormatter.MAX_CACHED_NAMES + 10; i++) {
+            ExtLogRecord record = record("message", "logger-" + i);
+            record.setThreadName("thread-" + i);
+
+            assertEquals(expected(record, null), formatter.format(record));
+        }
+    }
+
+    @Test
+    void shouldTruncateTheStackTraceFirstAndKeepTheDocumentValid() {
+        ElasticCommonSchemaLogFormatter formatter = new ElasticCommonSchemaLogFormatter(Optional.empty(),
+                new StackTraceEncoder(0, List.of()), 1_000);
+        ExtLogRecord record = record("a \"quoted\" message", "com.acme.Logger");
+        record.setThrown(new IllegalStateException("boom", new IllegalArgumentException("cause")));
+
+        String formatted = formatter.format(record);
+
+        assertTrue(formatted.length() <= 1_000, formatted);
+        JsonNode document = JsonNode.parser().parse(formatted);
+        assertEquals("a \"quoted\" message", document.field("message").get().asString());
+        assertTrue(document.field("error.stack_trace").get().asString()
+                .endsWith(ElasticCommonSchemaLogFormatter.TRUNCATED_TAG));
+    }
+
+    @Test
+    void shouldTruncateTheMessageOnACharacterBoundary() {
+        ElasticCommonSchemaLogFormatter formatter = new ElasticCommonSchemaLogFormatter(Optional.empty(),
+                new StackTraceEncoder(0, List.of()), 300);
+        for (int i = 0; i < 20; i++) {
+            // Escapes and surrogate pairs at every possible cut position.
+            ExtLogRecord record = record("x".repeat(i) + "\"\n\u0001\uD83D\uDE00".repeat(100), "com.acme.Logger");
+
+            String formatted = formatter.format(record);
+
+            assertTrue(formatted.length() <= 300, formatted);
+            String message = JsonNode.parser().parse(formatted).field("message").get().asString();
+            assertTrue(message.endsWith(ElasticCommonSchemaLogFormatter.TRUNCATED_TAG), message);
+            assertTrue(record.getMessage().startsWith(message.substring(0,
+                    message.length() - ElasticCommonSchemaLogFormatter.TRUNCATED_TAG.length())), message);
+        }
+    }
+
+    @Test
+    void shouldCutTheDocumentWhoseOtherFieldsExceedTheMaximumLength() {
+        ElasticCommonSchemaLogFormatter formatter = new ElasticCommonSchemaLogFormatter(Optional.empty(),
+                new StackTraceEncoder(0, List.of()), 300);
+        MDC.put("request.body", "x".repeat(1_000));
+        ExtLogRecord record = record("message", "com.acme.Logger");
+
+        String formatted = formatter.format(record);
+
+        assertEquals(300, formatted.length());
+        assertTrue(formatted.endsWith(ElasticCommonSchemaLogFormatter.TRUNCATED_TAG), formatted);
+    }
+
+    private static ExtLogRecord record(String message, String loggerName) {
+        ExtLogRecord record = new ExtLogRecord(Level.INFO, message, ElasticCommonSchemaLogFormatterTest.class.getName());
+        record.setLoggerName(loggerName);
+        record.setThreadName(Thread.currentThread().getName());
+        record.setLongThreadID(Thread.currentThread().getId());
+        return record;
+    }
+
+    private static String expected(ExtLogRecord record, String serviceEnvironment) {
+        StringBuilder builder = new StringBuilder();
+        EcsJsonSerializer.serializeObjectStart(builder, record.getMillis());
+        EcsJsonSerializer.serializeLogLevel(builder, record.getLevel().getName());
+        EcsJsonSerializer.serializeFormattedMessage(builder, record.getMessage());
+        if (serviceEnvironment != null) {
+            builder.append("\"service.environment\":\"").append(serviceEnvironment.replace("\"", "\\\"")).append("\",");
+        }
+        EcsJsonSerializer.serializeThreadName(builder, record.getThreadName());
+        EcsJsonSerializer.serializeLoggerName(builder, record.getLoggerName());
+        EcsJsonSerializer.serializeMDC(builder, record.getMdcCopy());
+        EcsJsonSerializer.serializeException(builder, record.getThrown(), false);
+        EcsJsonSerializer.serializeObjectEnd(builder);
+        return builder.toString();
+    }
+}
@@ -0,0 +1,70 @@
+package io.quarkiverse.logging.cloudwatch.format;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.Level;
+import org.jboss.logmanager.MDC;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class PlainTextLogFormatterTest {
+
+    private final PlainTextLogFormatter testee = new PlainTextLogFormatter(new StackTraceEncoder(0, List.of()), 0);
+
+    @AfterEach
+    void clearMdc() {
+        MDC.clear();
+    }
+
+    @Test
+    void shouldFormatLikeTheConsole() {
+        assertEquals("INFO  [com.acme.Logger] (main) a \"quoted\" message", testee.format(record("a \"quoted\" message")));
+    }
+
+    @Test
+    void shouldAppendMdcAndStackTrace() {
+        MDC.put("request.id", "42");
+        ExtLogRecord record = record("message");
+        IllegalStateException exception = new IllegalStateException("boom");
+        exception.setStackTrace(new StackTraceElement[] { new StackTraceElement("com.acme.Service", "run", null, -1) });
+        record.setThrown(exception);
+
+        assertEquals("INFO  [com.acme.Logger] (main) message {request.id=42}\n"
+                + "java.lang.IllegalStateException: boom\n"
+                + "\tat com.acme.Service.run(Unknown Source)", testee.format(record));
+    }
+
+    @Test
+    void shouldIncludeMdcCapturedByTheRecordWhenFormattedOnAnotherThread() {
+        MDC.put("request.id", "42");
+        ExtLogRecord record = record("message");
+        record.copyMdc();
+        MDC.clear();
+
+        assertEquals("INFO  [com.acme.Logger] (main) message {request.id=42}", testee.formatSnapshot(record, "message"));
+    }
+
+    @Test
+    void shouldTruncateTheStackTraceFirst() {
+        PlainTextLogFormatter formatter = new PlainTextLogFormatter(new StackTraceEncoder(0, List.of()), 200);
+        ExtLogRecord record = record("a message with a \\ backslash");
+        record.setThrown(new IllegalStateException("boom"));
+
+        String formatted = formatter.format(record);
+
+        assertEquals(200, formatted.length(), formatted);
+        assertTrue(formatted.startsWith("INFO  [com.acme.Logger] (main) a message with a \\ backslash\n"), formatted);
+        assertTrue(formatted.endsWith(AbstractLogFormatter.TRUNCATED_TAG), formatted);
+    }
+
+    private static ExtLogRecord record(String message) {
+        ExtLogRecord record = new ExtLogRecord(Level.INFO, message, PlainTextLogFormatterTest.class.getName());
+        record.setLoggerName("com.acme.Logger");
+        record.setThreadName("main");
+        record.setLongThreadID(Thread.currentThread().getId());
+        return record;
+    }
+}
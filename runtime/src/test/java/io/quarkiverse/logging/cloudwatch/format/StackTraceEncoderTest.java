@@ -0,0 +1,150 @@
+package io.quarkiverse.logging.cloudwatch.format;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import software.amazon.awssdk.protocols.jsoncore.JsonNode;
+
+class StackTraceEncoderTest {
+
+    @Test
+    void shouldPrintTheStackTraceLikeThrowableWithoutLimitNorCollapsedPackages() {
+        IllegalStateException exception = new IllegalStateException("boom \"quoted\"",
+                new IllegalArgumentException("cause"));
+        exception.addSuppressed(new RuntimeException("suppressed"));
+
+        JsonNode fields = encode(new StackTraceEncoder(0, List.of()), exception);
+
+        assertEquals(IllegalStateException.class.getName(), fields.field("error.type").get().asString());
+        assertEquals("boom \"quoted\"", fields.field("error.message").get().asString());
+        assertEquals(printStackTrace(exception), fields.field("error.stack_trace").get().asString());
+    }
+
+    @Test
+    void shouldCollapseConsecutiveFramesOfTheCollapsedPackages() {
+        RuntimeException exception = new RuntimeException("boom");
+        exception.setStackTrace(new StackTraceElement[] {
+                frame("com.acme.Service"),
+                frame("jdk.internal.reflect.DirectMethodHandleAccessor"),
+                frame("java.lang.reflect.Method"),
+                frame("io.netty.channel.Channel"),
+                frame("com.acme.Resource"),
+                frame("io.netty.channel.Channel"),
+        });
+
+        String stackTrace = stackTrace(new StackTraceEncoder(0, List.of("java.lang.reflect", "jdk.internal.reflect",
+                "io.netty")), exception);
+
+        assertEquals("java.lang.RuntimeException: boom\n"
+                + "\tat com.acme.Service.run(Service.java:1)\n"
+                + "\t... 3 framework frames omitted\n"
+                + "\tat com.acme.Resource.run(Resource.java:1)\n"
+                // A single frame says more than a line telling it was omitted.
+                + "\tat io.netty.channel.Channel.run(Channel.java:1)\n", stackTrace);
+    }
+
+    @Test
+    void shouldTruncateTheFramesBeyondTheMaximumLength() {
+        RuntimeException cause = new RuntimeException("cause");
+        cause.setStackTrace(new StackTraceElement[] { frame("com.acme.Repository") });
+        RuntimeException exception = new RuntimeException("boom", cause);
+        StackTraceElement[] frames = new StackTraceElement[100];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = frame("com.acme.Service" + i);
+        }
+        exception.setStackTrace(frames);
+
+        String stackTrace = stackTrace(new StackTraceEncoder(200, List.of()), exception);
+
+        assertTrue(stackTrace.startsWith("java.lang.RuntimeException: boom\n\tat com.acme.Service0.run"), stackTrace);
+        assertTrue(stackTrace.contains(" frames truncated\n"), stackTrace);
+        // The cause does not fit anymore.
+        assertTrue(stackTrace.endsWith("... truncated\n"), stackTrace);
+        assertFalse(stackTrace.contains("Caused by"), stackTrace);
+        assertTrue(stackTrace.length() <= 200 + "\t... 100 frames truncated\n... truncated\n".length(), stackTrace);
+    }
+
+    @Test
+    void shouldPrintCircularReferences() {
+        RuntimeException first = new RuntimeException("first");
+        RuntimeException second = new RuntimeException("second", first);
+        first.initCause(second);
+
+        JsonNode fields = encode(new StackTraceEncoder(0, List.of()), second);
+
+        assertEquals(printStackTrace(second), fields.field("error.stack_trace").get().asString());
+    }
+
+    @Test
+    void shouldReuseTheFieldsOfTheSameException() {
+        StackTraceEncoder encoder = new StackTraceEncoder(0, List.of());
+        RuntimeException[] exceptions = new RuntimeException[2];
+        for (int i = 0; i < exceptions.length; i++) {
+            // Same line, same frames.
+            exceptions[i] = new RuntimeException("boom");
+        }
+        RuntimeException other = new RuntimeException("other");
+
+        String first = fields(encoder, exceptions[0]);
+        assertEquals(first, fields(encoder, exceptions[0]));
+        assertEquals(first, fields(encoder, exceptions[1]));
+        assertNotEquals(first, fields(encoder, other));
+        assertEquals(first, fields(encoder, exceptions[1]));
+    }
+
+    @Test
+    void shouldKeepOnlyTheMostRecentlyUsedExceptions() {
+        StackTraceEncoder encoder = new StackTraceEncoder(0, List.of());
+        for (int i = 0; i < StackTraceEncoder.MAX_CACHED_EXCEPTIONS * 2; i++) {
+            fields(encoder, new RuntimeException("boom " + i));
+        }
+
+        assertEquals(StackTraceEncoder.MAX_CACHED_EXCEPTIONS, encoder.cachedExceptions());
+    }
+
+    @Test
+    void shouldNotKeepTheLastExceptionReachable() throws InterruptedException {
+        StackTraceEncoder encoder = new StackTraceEncoder(0, List.of());
+        RuntimeException exception = new RuntimeException("boom");
+        fields(encoder, exception);
+        WeakReference<RuntimeException> reference = new WeakReference<>(exception);
+        exception = null;
+
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(reference.get());
+    }
+
+    private static StackTraceElement frame(String className) {
+        return new StackTraceElement(className, "run", className.substring(className.lastIndexOf('.') + 1) + ".java",
+                1);
+    }
+
+    private static String fields(StackTraceEncoder encoder, Throwable throwable) {
+        StringBuilder builder = new StringBuilder();
+        encoder.appendTo(builder, throwable);
+        return builder.toString();
+    }
+
+    private static String stackTrace(StackTraceEncoder encoder, Throwable throwable) {
+        return encode(encoder, throwable).field("error.stack_trace").get().asString();
+    }
+
+    private static JsonNode encode(StackTraceEncoder encoder, Throwable throwable) {
+        return JsonNode.parser().parse("{" + fields(encoder, throwable) + "}");
+    }
+
+    private static String printStackTrace(Throwable throwable) {
+        StringWriter writer = new StringWriter();
+        throwable.printStackTrace(new PrintWriter(writer));
+        return writer.toString().replace(System.lineSeparator(), "\n");
+    }
+}
@@ -0,0 +1,112 @@
+package io.quarkiverse.logging.cloudwatch.queue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SpillLogTest {
+
+    private static final int SEGMENT_SIZE = 1024;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldReadEventsInAppendOrderAcrossSegments() throws IOException {
+        try (SpillLog spillLog = new SpillLog(directory, 16 * SEGMENT_SIZE, SEGMENT_SIZE)) {
+            for (int i = 0; i < 100; i++) {
+                assertTrue(spillLog.append(i, "message-" + i + "-é"));
+            }
+            assertEquals(100, spillLog.size());
+            assertTrue(segmentCount() > 1);
+
+            List<String> messages = new ArrayList<>();
+            assertEquals(40, spillLog.drain(40, (timestamp, message) -> messages.add(timestamp + ":" + message)));
+            assertEquals(60, spillLog.drain(1000, (timestamp, message) -> messages.add(timestamp + ":" + message)));
+
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i + ":message-" + i + "-é", messages.get(i));
+            }
+            assertTrue(spillLog.isEmpty());
+            // Only the segment being written is left.
+            assertEquals(1, segmentCount());
+        }
+    }
+
+    @Test
+    void shouldRejectEventsOnceMaxSizeIsReached() throws IOException {
+        try (SpillLog spillLog = new SpillLog(directory, 2 * SEGMENT_SIZE, SEGMENT_SIZE)) {
+            String message = "x".repeat(500);
+            assertTrue(spillLog.append(0, message));
+            assertTrue(spillLog.append(0, message));
+            assertTrue(spillLog.append(0, message));
+            assertTrue(spillLog.append(0, message));
+            assertFalse(spillLog.append(0, message));
+            assertFalse(spillLog.append(0, "x".repeat(SEGMENT_SIZE)));
+
+            // Reading the first segment frees some space.
+            spillLog.drain(3, (timestamp, m) -> {
+            });
+            assertTrue(spillLog.append(0, message));
+            assertEquals(2, spillLog.size());
+        }
+    }
+
+    @Test
+    void shouldRecoverUnreadEventsAfterRestart() throws IOException {
+        try (SpillLog spillLog = new SpillLog(directory, 16 * SEGMENT_SIZE, SEGMENT_SIZE)) {
+            for (int i = 0; i < 30; i++) {
+                spillLog.append(i, "message-" + i);
+            }
+            spillLog.drain(10, (timestamp, message) -> {
+            });
+        }
+
+        try (SpillLog spillLog = new SpillLog(directory, 16 * SEGMENT_SIZE, SEGMENT_SIZE)) {
+            assertEquals(20, spillLog.size());
+            spillLog.append(30, "message-30");
+
+            List<Long> timestamps = new ArrayList<>();
+            spillLog.drain(1000, (timestamp, message) -> timestamps.add(timestamp));
+            assertEquals(21, timestamps.size());
+            for (int i = 0; i < timestamps.size(); i++) {
+                assertEquals(10L + i, timestamps.get(i));
+            }
+        }
+    }
+
+    @Test
+    void shouldRecoverSegmentsWrittenWithAnotherSegmentSize() throws IOException {
+        try (SpillLog spillLog = new SpillLog(directory, 16 * SEGMENT_SIZE, SEGMENT_SIZE)) {
+            for (int i = 0; i < 60; i++) {
+                spillLog.append(i, "message-" + i);
+            }
+        }
+
+        try (SpillLog spillLog = new SpillLog(directory, 16 * SEGMENT_SIZE, SEGMENT_SIZE / 4)) {
+            assertEquals(60, spillLog.size());
+            spillLog.append(60, "message-60");
+
+            List<Long> timestamps = new ArrayList<>();
+            spillLog.drain(1000, (timestamp, message) -> timestamps.add(timestamp));
+            assertEquals(61, timestamps.size());
+            for (int i = 0; i < timestamps.size(); i++) {
+                assertEquals((long) i, timestamps.get(i));
+            }
+        }
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
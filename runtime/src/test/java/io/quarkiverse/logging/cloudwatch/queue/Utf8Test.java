@@ -0,0 +1,35 @@
+package io.quarkiverse.logging.cloudwatch.queue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class Utf8Test {
+
+    @Test
+    void shouldComputeEncodedLength() {
+        assertEquals(5, Utf8.encodedLength("hello"));
+        assertEquals(2, Utf8.encodedLength("é"));
+        assertEquals(3, Utf8.encodedLength("€"));
+        assertEquals(4, Utf8.encodedLength("😀"));
+        assertEquals("a€é😀".getBytes(StandardCharsets.UTF_8).length, Utf8.encodedLength("a€é😀"));
+    }
+
+    @Test
+    void shouldEncodeLikeStringGetBytes() {
+        for (String value : new String[] { "", "hello", "é", "€", "😀", "a€é😀\"\n", "lone \uD83D surrogate", "\uDE00" }) {
+            ByteBuffer buffer = ByteBuffer.allocate(Utf8.encodedLength(value) + 4);
+
+            int written = Utf8.encode(value, buffer, 4);
+
+            byte[] expected = value.getBytes(StandardCharsets.UTF_8);
+            assertEquals(expected.length, written, value);
+            assertArrayEquals(expected, Arrays.copyOfRange(buffer.array(), 4, 4 + written), value);
+            assertTrue(written <= Utf8.encodedLength(value), value);
+        }
+    }
+}